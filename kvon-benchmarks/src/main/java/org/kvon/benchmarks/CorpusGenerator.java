@@ -0,0 +1,201 @@
+package org.kvon.benchmarks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/// Generates synthetic KVON documents of a given shape. The output only
+/// depends on the arguments, so the same corpus is produced on every run.
+///
+/// Run `main` to write every corpus to a directory, e.g. to inspect them or
+/// to feed them to other tools.
+public final class CorpusGenerator {
+	public enum Shape {
+		/// Objects nested 32 levels deep, with a few scalars on every level.
+		DEEP_NESTING,
+		/// Objects of 500 keys each.
+		WIDE_OBJECTS,
+		/// Inline arrays of 2000 numbers each.
+		LONG_INLINE_ARRAYS,
+		/// Multi-line strings of 200 lines each.
+		MULTI_LINE_STRINGS,
+		/// An array of small objects of the same shape, like a table dump.
+		RECORDS,
+	}
+
+	public enum Indentation {
+		TABS("\t"),
+		SPACES("    ");
+
+		final String unit;
+
+		Indentation(String unit) {
+			this.unit = unit;
+		}
+	}
+
+	private static final String[] WORDS = {
+		"alpha", "bravo", "charlie", "delta", "echo", "foxtrot", "golf",
+		"hotel", "india", "juliet", "kilo", "lima", "mike", "november",
+	};
+
+	private final StringBuilder out;
+	private final Indentation indentation;
+	private final Random random;
+
+	private CorpusGenerator(Indentation indentation, long seed) {
+		this.out = new StringBuilder();
+		this.indentation = indentation;
+		this.random = new Random(seed);
+	}
+
+	/// Generates a document of `shape` of at least `targetChars` characters.
+	public static String generate(Shape shape, Indentation indentation, int targetChars, long seed) {
+		CorpusGenerator generator = new CorpusGenerator(indentation, seed);
+		for (int block = 0; generator.out.length() < targetChars; block++) {
+			generator.block(shape, block);
+		}
+		return generator.out.toString();
+	}
+
+	/// Generates a document of `shape` of at least `targetChars` characters
+	/// with the default seed.
+	public static String generate(Shape shape, Indentation indentation, int targetChars) {
+		return generate(shape, indentation, targetChars, 42);
+	}
+
+	private void block(Shape shape, int block) {
+		switch (shape) {
+			case DEEP_NESTING:
+				deepNesting(block);
+				break;
+			case WIDE_OBJECTS:
+				wideObject(block);
+				break;
+			case LONG_INLINE_ARRAYS:
+				line(0).append("array_").append(block).append(": ");
+				inlineArray(2000);
+				break;
+			case MULTI_LINE_STRINGS:
+				line(0).append("text_").append(block).append(": |");
+				for (int i = 0; i < 200; i++) {
+					line(1);
+					words(12);
+				}
+				break;
+			case RECORDS:
+				records(block);
+				break;
+		}
+	}
+
+	private void deepNesting(int block) {
+		line(0).append("tree_").append(block).append(":");
+		for (int depth = 1; depth <= 32; depth++) {
+			line(depth).append("name: ");
+			quoted();
+			line(depth).append("size: ").append(random.nextInt(100000));
+			line(depth).append("enabled: ").append(random.nextBoolean());
+			line(depth).append("level_").append(depth).append(":");
+		}
+		line(33).append("leaf: null");
+	}
+
+	private void wideObject(int block) {
+		line(0).append("object_").append(block).append(":");
+		for (int i = 0; i < 500; i++) {
+			line(1).append("field_").append(i).append(": ");
+			scalar();
+		}
+	}
+
+	private void records(int block) {
+		line(0).append("records_").append(block).append(":--");
+		for (int i = 0; i < 500; i++) {
+			line(1).append("-");
+			line(2).append("id: ").append(block * 500L + i);
+			line(2).append("name: ");
+			quoted();
+			line(2).append("score: ").append(random.nextInt(1000)).append('.').append(random.nextInt(100));
+			line(2).append("active: ").append(random.nextBoolean());
+			line(2).append("tags: ");
+			inlineArray(4);
+		}
+	}
+
+	private void inlineArray(int length) {
+		out.append('[');
+		for (int i = 0; i < length; i++) {
+			if (i > 0)
+				out.append(' ');
+			number();
+		}
+		out.append(']');
+	}
+
+	private void scalar() {
+		switch (random.nextInt(4)) {
+			case 0:
+				number();
+				break;
+			case 1:
+				quoted();
+				break;
+			case 2:
+				out.append(random.nextBoolean());
+				break;
+			default:
+				out.append("null");
+		}
+	}
+
+	private void number() {
+		if (random.nextBoolean()) {
+			out.append(random.nextInt(2000000) - 1000000);
+		} else {
+			out.append(random.nextInt(10000)).append('.').append(random.nextInt(1000));
+		}
+	}
+
+	private void quoted() {
+		out.append('\'');
+		words(1 + random.nextInt(3));
+		out.append('\'');
+	}
+
+	private void words(int count) {
+		for (int i = 0; i < count; i++) {
+			if (i > 0)
+				out.append(' ');
+			out.append(WORDS[random.nextInt(WORDS.length)]);
+		}
+	}
+
+	/// Starts a new line at `indent` and returns the output to append to it.
+	private StringBuilder line(int indent) {
+		if (out.length() > 0)
+			out.append('\n');
+		for (int i = 0; i < indent; i++)
+			out.append(indentation.unit);
+		return out;
+	}
+
+	/// Writes every corpus into the directory given as the first argument,
+	/// optionally sized by the second argument in characters.
+	public static void main(String[] args) throws IOException {
+		Path dir = Paths.get(args.length > 0 ? args[0] : "corpus");
+		int size = args.length > 1 ? Integer.parseInt(args[1]) : 1 << 20;
+
+		Files.createDirectories(dir);
+		for (Shape shape: Shape.values()) {
+			for (Indentation indentation: Indentation.values()) {
+				String name = shape.name().toLowerCase() + "-" + indentation.name().toLowerCase() + ".kvon";
+				byte[] bytes = generate(shape, indentation, size).getBytes(StandardCharsets.UTF_8);
+				Files.write(dir.resolve(name), bytes);
+			}
+		}
+	}
+}
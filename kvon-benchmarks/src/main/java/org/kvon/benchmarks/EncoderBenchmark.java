@@ -0,0 +1,64 @@
+package org.kvon.benchmarks;
+
+import org.kvon.Indention;
+import org.kvon.KvonException;
+import org.kvon.Parser;
+import org.kvon.Value;
+import org.kvon.encoders.ExpandedEncoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/// Encodes the trees of generated documents.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class EncoderBenchmark {
+	@Param
+	public CorpusGenerator.Shape shape;
+
+	@Param("1048576")
+	public int size;
+
+	private Value value;
+	private StringBuilder out;
+
+	@Setup
+	public void setup() throws KvonException {
+		value = Parser.parseString(CorpusGenerator.generate(shape, CorpusGenerator.Indentation.TABS, size));
+		out = new StringBuilder(size * 2);
+	}
+
+	@Benchmark
+	public String encode() {
+		return ExpandedEncoder.encode(value, Indention.tabs());
+	}
+
+	@Benchmark
+	public String encodeParallel() {
+		return ExpandedEncoder.encodeParallel(value, Indention.tabs());
+	}
+
+	/// Encodes into a reused builder, which leaves only the encoder's own
+	/// allocations in `-prof gc`.
+	@Benchmark
+	public int encodeToAppendable() throws IOException {
+		out.setLength(0);
+		ExpandedEncoder.encode(value, Indention.tabs(), out);
+		return out.length();
+	}
+}
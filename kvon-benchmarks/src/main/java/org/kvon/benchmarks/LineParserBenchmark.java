@@ -0,0 +1,91 @@
+package org.kvon.benchmarks;
+
+import org.kvon.KvonException;
+import org.kvon.LineParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/// Runs the `LineParser` primitives over single lines of a given width.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class LineParserBenchmark {
+	@Param({"16", "1024", "10000"})
+	public int width;
+
+	/// `\t\t\t` followed by a key of `width` characters and a value.
+	private char[] keyLine;
+	/// A quoted string of `width` characters.
+	private char[] stringLine;
+	/// Numbers separated by spaces, `width` characters in total.
+	private char[] numbersLine;
+	/// `width` whitespaces followed by a comment.
+	private char[] blankLine;
+
+	@Setup
+	public void setup() {
+		StringBuilder sb = new StringBuilder("\t\t\t");
+		for (int i = 0; i < width; i++)
+			sb.append((char) ('a' + i % 26));
+		keyLine = sb.append(": 1").toString().toCharArray();
+
+		sb = new StringBuilder("'");
+		for (int i = 0; i < width; i++)
+			sb.append((char) ('a' + i % 26));
+		stringLine = sb.append("'").toString().toCharArray();
+
+		sb = new StringBuilder();
+		for (int i = 0; sb.length() < width; i++)
+			sb.append(i % 3 == 0 ? "-12.5 " : "12345 ");
+		numbersLine = sb.toString().toCharArray();
+
+		sb = new StringBuilder();
+		for (int i = 0; i < width; i++)
+			sb.append(i % 2 == 0 ? ' ' : '\t');
+		blankLine = sb.append("# comment").toString().toCharArray();
+	}
+
+	@Benchmark
+	public String parseKey() throws KvonException {
+		LineParser lineParser = new LineParser(0, keyLine, 0, keyLine.length);
+		lineParser.nextWhitespaces();
+		return lineParser.parseKey();
+	}
+
+	@Benchmark
+	public Optional<String> parseStringLiteral() throws KvonException {
+		LineParser lineParser = new LineParser(0, stringLine, 0, stringLine.length);
+		return lineParser.parseStringLiteral();
+	}
+
+	@Benchmark
+	public void parseNumericalLiterals(Blackhole blackhole) {
+		LineParser lineParser = new LineParser(0, numbersLine, 0, numbersLine.length);
+		while (!lineParser.reached_end()) {
+			blackhole.consume(lineParser.parseNumericalLiteral());
+			lineParser.consumeWhitespaces();
+		}
+	}
+
+	@Benchmark
+	public boolean seeEndOrComment() {
+		LineParser lineParser = new LineParser(0, blankLine, 0, blankLine.length);
+		return lineParser.seeEndOrComment();
+	}
+}
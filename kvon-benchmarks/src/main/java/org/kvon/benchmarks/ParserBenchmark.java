@@ -0,0 +1,124 @@
+package org.kvon.benchmarks;
+
+import org.kvon.KvonException;
+import org.kvon.KvonHandler;
+import org.kvon.ParallelParser;
+import org.kvon.Parser;
+import org.kvon.Value;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/// Parses whole generated documents into a tree, on one thread and on the
+/// common pool, and into a handler that builds nothing.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ParserBenchmark {
+	@Param
+	public CorpusGenerator.Shape shape;
+
+	@Param
+	public CorpusGenerator.Indentation indentation;
+
+	@Param("1048576")
+	public int size;
+
+	private String document;
+
+	@Setup
+	public void setup() {
+		document = CorpusGenerator.generate(shape, indentation, size);
+	}
+
+	@Benchmark
+	public Value parseString() throws KvonException {
+		return Parser.parseString(document);
+	}
+
+	@Benchmark
+	public Value parseParallel() throws KvonException {
+		return ParallelParser.parse(document);
+	}
+
+	@Benchmark
+	public void parseToHandler(Blackhole blackhole) throws IOException, KvonException {
+		Parser.parse(new StringReader(document), new BlackholeHandler(blackhole));
+	}
+
+	/// Hands every callback to a blackhole, so nothing is built but nothing
+	/// can be optimized away either.
+	static class BlackholeHandler implements KvonHandler {
+		private final Blackhole blackhole;
+
+		BlackholeHandler(Blackhole blackhole) {
+			this.blackhole = blackhole;
+		}
+
+		@Override
+		public void startObject() {
+			blackhole.consume(1);
+		}
+
+		@Override
+		public void endObject() {
+			blackhole.consume(2);
+		}
+
+		@Override
+		public void startArray() {
+			blackhole.consume(3);
+		}
+
+		@Override
+		public void endArray() {
+			blackhole.consume(4);
+		}
+
+		@Override
+		public void onKey(CharSequence key) {
+			blackhole.consume(key);
+		}
+
+		@Override
+		public void onText(CharSequence text) {
+			blackhole.consume(text);
+		}
+
+		@Override
+		public void onNumber(double number) {
+			blackhole.consume(number);
+		}
+
+		@Override
+		public void onNumberLiteral(char[] chars, int start, int end) {
+			blackhole.consume(end - start);
+		}
+
+		@Override
+		public void onBoolean(boolean b) {
+			blackhole.consume(b);
+		}
+
+		@Override
+		public void onNull() {
+			blackhole.consume(5);
+		}
+	}
+}
@@ -0,0 +1,47 @@
+package org.kvon;
+
+import java.util.Arrays;
+
+/// The contexts open while parsing, as their kinds and indents, which is all
+/// the parser needs of them. The arrays are kept when the parser is reset, so
+/// a reused parser doesn't allocate per context.
+final class ContextStack {
+	static final byte OBJECT = 0;
+	static final byte ARRAY = 1;
+	static final byte MULTI_LINE_STRING = 2;
+
+	private byte[] kinds = new byte[16];
+	private int[] indents = new int[16];
+	private int size = 0;
+
+	void push(byte kind, int indent) {
+		if (size == kinds.length) {
+			kinds = Arrays.copyOf(kinds, size * 2);
+			indents = Arrays.copyOf(indents, size * 2);
+		}
+		kinds[size] = kind;
+		indents[size] = indent;
+		size++;
+	}
+
+	/// Removes the top context and returns its kind.
+	byte pop() {
+		return kinds[--size];
+	}
+
+	byte topKind() {
+		return kinds[size - 1];
+	}
+
+	int topIndent() {
+		return indents[size - 1];
+	}
+
+	int size() {
+		return size;
+	}
+
+	void clear() {
+		size = 0;
+	}
+}
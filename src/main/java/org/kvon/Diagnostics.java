@@ -0,0 +1,65 @@
+package org.kvon;
+
+import java.util.Arrays;
+
+/// The errors of a document, collected by a parser which goes on after them,
+/// see `Parser.collectErrors` and `Parser.validate`. Every error is kept as
+/// its type, line number and column number, in flat arrays.
+public final class Diagnostics {
+	private KvonException.KvonBaseExceptionType[] types = new KvonException.KvonBaseExceptionType[4];
+	private int[] lineNumbers = new int[4];
+	private int[] columnNumbers = new int[4];
+	private int size = 0;
+
+	void add(KvonException e) {
+		if (size == types.length) {
+			types = Arrays.copyOf(types, size * 2);
+			lineNumbers = Arrays.copyOf(lineNumbers, size * 2);
+			columnNumbers = Arrays.copyOf(columnNumbers, size * 2);
+		}
+		types[size] = e.type;
+		lineNumbers[size] = e.lineNumber;
+		columnNumbers[size] = e.columnNumber;
+		size++;
+	}
+
+	/// Returns the number of errors.
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public KvonException.KvonBaseExceptionType getType(int i) {
+		checkIndex(i);
+		return types[i];
+	}
+
+	public int getLineNumber(int i) {
+		checkIndex(i);
+		return lineNumbers[i];
+	}
+
+	public int getColumnNumber(int i) {
+		checkIndex(i);
+		return columnNumbers[i];
+	}
+
+	/// Lists the errors, one per line, as `line:column type`.
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < size; i++) {
+			sb.append(lineNumbers[i]).append(':').append(columnNumbers[i]).append(' ');
+			sb.append(types[i].getClass().getSimpleName()).append('\n');
+		}
+		return sb.toString();
+	}
+
+	private void checkIndex(int i) {
+		if (i < 0 || i >= size)
+			throw new IndexOutOfBoundsException("error " + i + " of " + size);
+	}
+}
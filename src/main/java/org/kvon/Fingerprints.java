@@ -0,0 +1,150 @@
+package org.kvon;
+
+import java.math.BigDecimal;
+import java.util.IdentityHashMap;
+
+/// Computes 64 bit fingerprints of values, which agree with `Value.equal`:
+/// equal values have equal fingerprints, and unequal ones almost certainly
+/// don't. Objects are fingerprinted regardless of the order of their keys,
+/// and numbers by their exact values. A frozen [Value.FlatObj] keeps its
+/// fingerprint, so a frozen tree is only fingerprinted once. Trees which
+/// may still change are fingerprinted anew on every call, unless a memo is
+/// given, which keeps the fingerprints of their containers for as long as
+/// the trees stay unchanged.
+final class Fingerprints {
+	private static final long OBJECT = 0x6a09e667f3bcc908L;
+	private static final long ARRAY = 0xbb67ae8584caa73bL;
+	private static final long TEXT = 0x3c6ef372fe94f82bL;
+	private static final long NUMBER = 0xa54ff53a5f1d36f1L;
+	private static final long FLOAT = 0x510e527fade682d1L;
+	private static final long TRUE = 0x9b05688c2b3e6c1fL;
+	private static final long FALSE = 0x1f83d9abfb41bd6bL;
+	private static final long NULL = 0x5be0cd19137e2179L;
+
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private Fingerprints() { }
+
+	static long of(Value v) {
+		return of(v, null);
+	}
+
+	/// Fingerprints `v`, reusing and filling `memo` for the containers which
+	/// aren't frozen, unless it's null.
+	static long of(Value v, IdentityHashMap<Value, Long> memo) {
+		if (v instanceof Value.FlatObj && ((Value.FlatObj) v).isFrozen())
+			return ((Value.FlatObj) v).frozenFingerprint();
+		if (v.isPrimitive())
+			return of(v.getPrimitive());
+		if (!v.isObject() && !v.isArray())
+			return 0;
+
+		Long known = memo != null ? memo.get(v) : null;
+		if (known != null)
+			return known;
+
+		long h;
+		if (v.isObject()) {
+			h = object(v, memo);
+		} else {
+			h = ARRAY;
+			for (int i = 0; i < v.size(); i++)
+				h = (h ^ of(v.get(i), memo)) * FNV_PRIME;
+			h = mix(h ^ v.size());
+		}
+		if (memo != null)
+			memo.put(v, h);
+		return h;
+	}
+
+	/// Fingerprints the entries of an object. Never returns 0, which marks a
+	/// fingerprint that isn't computed yet.
+	static long object(Value v, IdentityHashMap<Value, Long> memo) {
+		long[] sum = {0};
+		v.forEachField((key, value) -> sum[0] += mix(string(key) + Long.rotateLeft(of(value, memo), 29)));
+		long h = mix(OBJECT ^ sum[0] ^ v.size());
+		return h != 0 ? h : 1;
+	}
+
+	static long of(PrimitiveValue p) {
+		if (p.isText())
+			return mix(TEXT ^ string(p.getText()));
+		if (p.isBoolean())
+			return p.getBoolean() ? TRUE : FALSE;
+		if (p.isNumber())
+			return number(p);
+		return NULL;
+	}
+
+	/// Folds the fingerprint into a hash code.
+	static int hashCode(Value v) {
+		long h = of(v);
+		return (int) (h ^ (h >>> 32));
+	}
+
+	static int hashCode(PrimitiveValue p) {
+		long h = of(p);
+		return (int) (h ^ (h >>> 32));
+	}
+
+	private static long number(PrimitiveValue p) {
+		String literal;
+		if (p instanceof PrimitiveValue.NumberLiteral) {
+			literal = ((PrimitiveValue.NumberLiteral) p).source;
+		} else {
+			double d = p.getDouble();
+			if (!Double.isFinite(d))
+				return mix(FLOAT ^ Double.doubleToLongBits(d));
+			literal = new BigDecimal(d).toPlainString();
+		}
+		return mix(NUMBER ^ decimal(literal));
+	}
+
+	/// Hashes the digits of a literal - `-?[0-9]*(\.[0-9]+)?` - without its
+	/// leading and trailing zeros, so equal numbers hash the same.
+	private static long decimal(String literal) {
+		int start = 0;
+		int end = literal.length();
+		boolean negative = start < end && literal.charAt(start) == '-';
+		if (negative)
+			start++;
+
+		while (start < end && literal.charAt(start) == '0')
+			start++;
+		int dot = literal.indexOf('.', start);
+		if (dot >= 0) {
+			while (end > dot + 1 && literal.charAt(end - 1) == '0')
+				end--;
+			if (end == dot + 1)
+				end = dot;
+		}
+
+		long h = FNV_OFFSET;
+		boolean zero = true;
+		for (int i = start; i < end; i++) {
+			char c = literal.charAt(i);
+			zero &= c == '0' || c == '.';
+			h = (h ^ c) * FNV_PRIME;
+		}
+		// -0 equals 0
+		return negative && !zero ? ~h : h;
+	}
+
+	private static long string(String s) {
+		long h = FNV_OFFSET;
+		for (int i = 0; i < s.length(); i++)
+			h = (h ^ s.charAt(i)) * FNV_PRIME;
+		return mix(h ^ s.length());
+	}
+
+	/// The finalizer of MurmurHash3, which spreads every bit over the others.
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb53a85ec3b93L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
@@ -0,0 +1,369 @@
+package org.kvon;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/// Keeps a document parsed while its lines are edited, for editors and
+/// live reloading.
+///
+/// Besides the tree, the parser keeps the line range of every key that can
+/// be reached from the root through objects alone. When lines are replaced,
+/// only the smallest such key that encloses the edit is parsed again and
+/// swapped into the tree; every other subtree is kept as it is. A key
+/// encloses an edit if the edit is below the line of the key and before the
+/// end of its value, and all the new lines with content are indented deeper
+/// than the key. Otherwise the edit may change the structure around the key,
+/// and the next enclosing key is tried. Edits outside the values of the root
+/// keys parse the whole document again.
+///
+/// The tree is changed in place, so a reference to it or any of its objects
+/// sees the edits.
+public class IncrementalParser {
+	private final ArrayList<String> lines;
+	private Value root;
+	/// The document's indention, once it has an indented line, and the
+	/// number of the line which defined it.
+	private Indention indention;
+	private int indentionLine;
+	/// The keys, in the order of their lines. Their offsets and ends are line
+	/// numbers.
+	private ArrayList<KeyPathIndex.Indexer.Pending> keys;
+
+	/// The result of parsing some lines.
+	private static class Parsed {
+		final Value root;
+		final Indention indention;
+		/// The line which defined the indention, or -1 if it was given.
+		final int indentionLine;
+		final ArrayList<KeyPathIndex.Indexer.Pending> keys;
+
+		Parsed(Value root, Indention indention, int indentionLine, ArrayList<KeyPathIndex.Indexer.Pending> keys) {
+			this.root = root;
+			this.indention = indention;
+			this.indentionLine = indentionLine;
+			this.keys = keys;
+		}
+	}
+
+	/// Reports the document to both the tree builder and the indexer.
+	private static class Tee implements KvonHandler {
+		private final KvonHandler first;
+		private final KvonHandler second;
+
+		Tee(KvonHandler first, KvonHandler second) {
+			this.first = first;
+			this.second = second;
+		}
+
+		@Override
+		public void startObject() {
+			first.startObject();
+			second.startObject();
+		}
+
+		@Override
+		public void endObject() {
+			first.endObject();
+			second.endObject();
+		}
+
+		@Override
+		public void startArray() {
+			first.startArray();
+			second.startArray();
+		}
+
+		@Override
+		public void endArray() {
+			first.endArray();
+			second.endArray();
+		}
+
+		@Override
+		public void onKey(CharSequence key) {
+			first.onKey(key);
+			second.onKey(key);
+		}
+
+		@Override
+		public void onText(CharSequence text) {
+			first.onText(text);
+			second.onText(text);
+		}
+
+		@Override
+		public void onMultiLineText(CharSequence text) {
+			first.onMultiLineText(text);
+			second.onMultiLineText(text);
+		}
+
+		@Override
+		public void onNumber(double number) {
+			first.onNumber(number);
+			second.onNumber(number);
+		}
+
+		@Override
+		public void onNumberLiteral(char[] chars, int start, int end) {
+			first.onNumberLiteral(chars, start, end);
+			second.onNumberLiteral(chars, start, end);
+		}
+
+		@Override
+		public void onBoolean(boolean b) {
+			first.onBoolean(b);
+			second.onBoolean(b);
+		}
+
+		@Override
+		public void onNull() {
+			first.onNull();
+			second.onNull();
+		}
+	}
+
+	/// Parses `document`, whose lines are separated by `\n\r?`.
+	public IncrementalParser(String document) throws KvonException {
+		this.lines = new ArrayList<>();
+		int start = 0;
+		while (start < document.length()) {
+			int end = document.indexOf('\n', start);
+			if (end < 0) {
+				end = document.length();
+			}
+			lines.add(document.substring(start, end));
+
+			start = end + 1;
+			if (start < document.length() && document.charAt(start) == '\r') {
+				start++;
+			}
+		}
+
+		Parsed parsed = parse(lines, 0, lines.size(), 0, null);
+		this.root = parsed.root;
+		this.indention = parsed.indention;
+		this.indentionLine = parsed.indentionLine;
+		this.keys = parsed.keys;
+	}
+
+	/// Returns the parsed document.
+	public Value getValue() {
+		return root;
+	}
+
+	public List<String> getLines() {
+		return Collections.unmodifiableList(lines);
+	}
+
+	public int getLineCount() {
+		return lines.size();
+	}
+
+	/// Replaces the lines `[from, to)` with `newLines`, and returns the
+	/// updated document. If the new lines don't parse, the exception is thrown
+	/// and nothing is changed.
+	public Value replaceLines(int from, int to, List<String> newLines) throws KvonException {
+		if (from < 0 || to < from || to > lines.size()) {
+			throw new IndexOutOfBoundsException("lines " + from + " to " + to + " of " + lines.size());
+		}
+
+		int delta = newLines.size() - (to - from);
+		// an edit of the line which defined the indention, or of the lines
+		// before it, may define another one
+		int block = indention != null && from <= indentionLine ? -1 : enclosingKey(from, to, newLines);
+
+		ArrayList<String> edited = new ArrayList<>(lines.size() + Math.max(delta, 0));
+		edited.addAll(lines.subList(0, from));
+		edited.addAll(newLines);
+		edited.addAll(lines.subList(to, lines.size()));
+
+		if (block < 0) {
+			Parsed parsed = parse(edited, 0, edited.size(), 0, null);
+			lines.clear();
+			lines.addAll(edited);
+			root = parsed.root;
+			indention = parsed.indention;
+			indentionLine = parsed.indentionLine;
+			keys = parsed.keys;
+			return root;
+		}
+
+		KeyPathIndex.Indexer.Pending key = keys.get(block);
+		int start = (int) key.offset;
+		int end = (int) key.end + delta;
+		Parsed parsed = parse(edited, start, end, key.width, indention);
+
+		// the key's new value, which is the only root key of the block
+		Value[] value = {null};
+		parsed.root.forEachField((k, v) -> value[0] = v);
+		parent(block).put(key.key, value[0]);
+
+		lines.clear();
+		lines.addAll(edited);
+		if (indention == null) {
+			indention = parsed.indention;
+			indentionLine = parsed.indentionLine;
+		}
+		updateKeys(block, parsed.keys, delta);
+		return root;
+	}
+
+	/// Returns the index of the smallest key which encloses the edit, or -1
+	/// if there is none.
+	private int enclosingKey(int from, int to, List<String> newLines) {
+		int width = Integer.MAX_VALUE;
+		for (String line: newLines) {
+			int w = 0;
+			while (w < line.length() && (line.charAt(w) == ' ' || line.charAt(w) == '\t'))
+				w++;
+			if (w < line.length() && line.charAt(w) != '#')
+				width = Math.min(width, w);
+		}
+
+		HashMap<String, Integer> counts = null;
+		int found = -1;
+		for (int i = 0; i < keys.size(); i++) {
+			KeyPathIndex.Indexer.Pending key = keys.get(i);
+			if (key.offset >= from) {
+				// the keys are ordered by their lines
+				break;
+			}
+			if (key.end >= to && key.width < width && (found < 0 || key.indent > keys.get(found).indent)) {
+				if (counts == null) {
+					counts = new HashMap<>();
+					for (KeyPathIndex.Indexer.Pending k: keys)
+						counts.merge(k.path, 1, Integer::sum);
+				}
+				if (isUnique(i, counts)) {
+					found = i;
+				}
+			}
+		}
+		return found;
+	}
+
+	/// Returns true if neither the key at `index` nor any of the keys
+	/// enclosing it is repeated. A repeated key holds the value of its last
+	/// occurrence, so the others have no value of their own in the tree.
+	private boolean isUnique(int index, HashMap<String, Integer> counts) {
+		KeyPathIndex.Indexer.Pending key = keys.get(index);
+		if (counts.get(key.path) > 1) {
+			return false;
+		}
+
+		for (int i = index - 1, indent = key.indent - 1; indent >= 0; i--) {
+			KeyPathIndex.Indexer.Pending k = keys.get(i);
+			if (k.indent == indent) {
+				if (counts.get(k.path) > 1)
+					return false;
+				indent--;
+			}
+		}
+		return true;
+	}
+
+	/// Returns the object holding the key at `index`, found through the keys
+	/// enclosing it.
+	private Value.FlatObj parent(int index) {
+		// the closest key before it on each lower indent
+		KeyPathIndex.Indexer.Pending key = keys.get(index);
+		String[] path = new String[key.indent];
+		for (int i = index - 1, indent = key.indent - 1; indent >= 0; i--) {
+			KeyPathIndex.Indexer.Pending k = keys.get(i);
+			if (k.indent == indent) {
+				path[indent] = k.key;
+				indent--;
+			}
+		}
+
+		Value.FlatObj obj = (Value.FlatObj) root;
+		for (String k: path)
+			obj = (Value.FlatObj) obj.get(k);
+		return obj;
+	}
+
+	/// Replaces the keys within the value of the key at `index` with the keys
+	/// of its new value, and moves the keys after it by `delta` lines.
+	private void updateKeys(int index, ArrayList<KeyPathIndex.Indexer.Pending> parsed, int delta) {
+		KeyPathIndex.Indexer.Pending key = keys.get(index);
+		long oldEnd = key.end;
+
+		// the keys before it whose values enclose it
+		for (int i = 0; i < index; i++) {
+			KeyPathIndex.Indexer.Pending k = keys.get(i);
+			if (k.end > key.offset) {
+				k.end += delta;
+			}
+		}
+
+		int after = index + 1;
+		while (after < keys.size() && keys.get(after).offset < oldEnd)
+			after++;
+
+		ArrayList<KeyPathIndex.Indexer.Pending> updated = new ArrayList<>(keys.size() - (after - index) + parsed.size());
+		updated.addAll(keys.subList(0, index + 1));
+		key.end = parsed.get(0).end;
+
+		// the parsed paths start with the key itself
+		for (int i = 1; i < parsed.size(); i++) {
+			KeyPathIndex.Indexer.Pending k = parsed.get(i);
+			KeyPathIndex.Indexer.Pending moved = new KeyPathIndex.Indexer.Pending(
+				key.path + k.path.substring(key.key.length()),
+				k.key,
+				k.offset,
+				k.lineNumber,
+				key.indent + k.indent,
+				k.width
+			);
+			moved.end = k.end;
+			updated.add(moved);
+		}
+
+		for (int i = after; i < keys.size(); i++) {
+			KeyPathIndex.Indexer.Pending k = keys.get(i);
+			k.offset += delta;
+			k.lineNumber += delta;
+			k.end += delta;
+			updated.add(k);
+		}
+		keys = updated;
+	}
+
+	/// Parses the lines `[start, end)`, moved to the left by `width`
+	/// whitespaces.
+	private static Parsed parse(List<String> lines, int start, int end, int width, Indention indention) throws KvonException {
+		ValueBuilder builder = new ValueBuilder();
+		KeyPathIndex.Indexer indexer = new KeyPathIndex.Indexer();
+		Parser parser = new Parser(new Tee(builder, indexer));
+		// a fragment of the document, which isn't reported on its own
+		parser.setMetrics(null);
+		parser.indention = indention;
+		parser.lineNumber = start;
+		int indentionLine = -1;
+
+		for (int n = start; n < end; n++) {
+			String line = lines.get(n);
+			int dedent = 0;
+			while (dedent < width && dedent < line.length() && (line.charAt(dedent) == ' ' || line.charAt(dedent) == '\t'))
+				dedent++;
+
+			indexer.lineOffset = n;
+			indexer.lineEnd = n + 1;
+			indexer.lineNumber = n;
+			indexer.lineWidth = 0;
+			while (indexer.lineWidth < line.length() && (line.charAt(indexer.lineWidth) == ' ' || line.charAt(indexer.lineWidth) == '\t'))
+				indexer.lineWidth++;
+
+			parser.nextLine(line.toCharArray(), dedent, line.length());
+			if (indentionLine < 0 && indention == null && parser.indention != null)
+				indentionLine = n;
+		}
+
+		indexer.lineOffset = end;
+		indexer.lineNumber = -1;
+		parser.endDocument();
+		return new Parsed(builder.getResult(), parser.indention, indentionLine, indexer.entries);
+	}
+}
@@ -27,12 +27,12 @@ public interface Indention {
 
 		@Override
 		public boolean isTabs() {
-			return true;
+			return false;
 		}
 
 		@Override
 		public boolean isSpaces() {
-			return false;
+			return true;
 		}
 
 		@Override
@@ -0,0 +1,142 @@
+package org.kvon;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/// Reads single values out of a large, read-only KVON file with the help of
+/// its [KeyPathIndex]. The file is memory-mapped, and only the lines of the
+/// requested key are parsed.
+///
+/// ```
+/// try (IndexedFile file = IndexedFile.open(Paths.get("reference.kvon"))) {
+///     Value size = file.get("database.pool.size");
+/// }
+/// ```
+public final class IndexedFile implements Closeable {
+	/// The size of the mapped segments. A single mapping can't exceed 2 GB.
+	private static final long SEGMENT_SIZE = 1L << 30;
+
+	private final FileChannel channel;
+	private final KeyPathIndex index;
+	private final MappedByteBuffer[] segments;
+
+	/// Maps the file at `source`, whose index is `index`.
+	public IndexedFile(Path source, KeyPathIndex index) throws IOException {
+		this.channel = FileChannel.open(source, StandardOpenOption.READ);
+		this.index = index;
+
+		long size = channel.size();
+		this.segments = new MappedByteBuffer[(int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+		try {
+			for (int i = 0; i < segments.length; i++) {
+				long from = i * SEGMENT_SIZE;
+				segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, from, Math.min(SEGMENT_SIZE, size - from));
+			}
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/// Maps the file at `source`. Its index is loaded from the sidecar file,
+	/// which is built first if it's missing, unreadable or older than the
+	/// file. The sidecar is only a cache: if it can't be written, say in a
+	/// read-only directory, the index is used without being saved.
+	public static IndexedFile open(Path source) throws IOException, KvonException {
+		Path sidecar = KeyPathIndex.sidecarOf(source);
+		KeyPathIndex index = null;
+		if (Files.exists(sidecar)) {
+			try {
+				index = KeyPathIndex.load(sidecar);
+			} catch (IOException e) {
+				// truncated or written by another version, built again
+			}
+			if (index != null && !index.isUpToDate(source)) {
+				index = null;
+			}
+		}
+
+		if (index == null) {
+			index = KeyPathIndex.build(source);
+			try {
+				index.save(sidecar);
+			} catch (IOException e) {
+				// built again next time
+			}
+		}
+		return new IndexedFile(source, index);
+	}
+
+	public KeyPathIndex getIndex() {
+		return index;
+	}
+
+	/// Parses the value at `path`, or returns null if there is no such path.
+	/// Errors report the line numbers of the whole file.
+	public Value get(String path) throws KvonException {
+		KeyPathIndex.Entry entry = index.get(path);
+		if (entry == null) {
+			return null;
+		}
+
+		// the key's lines, moved to the left so that the key is a root key
+		char[] chars = new String(read(entry.offset, entry.end), StandardCharsets.UTF_8).toCharArray();
+		Parser parser = new Parser();
+		// a fragment of the file, which isn't reported on its own
+		parser.setMetrics(null);
+		parser.lineNumber = entry.lineNumber;
+
+		int start = 0;
+		while (start < chars.length) {
+			int end = start;
+			while (end < chars.length && chars[end] != '\n')
+				end++;
+
+			int dedent = 0;
+			while (dedent < entry.width && start + dedent < end && (chars[start + dedent] == ' ' || chars[start + dedent] == '\t'))
+				dedent++;
+			parser.nextLine(chars, start + dedent, end);
+
+			start = end + 1;
+			if (start < chars.length && chars[start] == '\r')
+				start++;
+		}
+
+		Value[] value = {null};
+		parser.finish().forEachField((key, v) -> value[0] = v);
+		return value[0];
+	}
+
+	/// Copies the bytes `[from, to)` out of the mapped segments.
+	private byte[] read(long from, long to) {
+		// an array can't hold 2 GB
+		if (to - from > Integer.MAX_VALUE - 8) {
+			throw new UnsupportedOperationException("a value of " + (to - from) + " bytes is too large to be read");
+		}
+		byte[] bytes = new byte[(int) (to - from)];
+		int copied = 0;
+		while (copied < bytes.length) {
+			long position = from + copied;
+			ByteBuffer segment = segments[(int) (position / SEGMENT_SIZE)].duplicate();
+			segment.position((int) (position % SEGMENT_SIZE));
+
+			int n = Math.min(bytes.length - copied, segment.remaining());
+			segment.get(bytes, copied, n);
+			copied += n;
+		}
+		return bytes;
+	}
+
+	/// Closes the file. The mappings are released once they are collected.
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,419 @@
+package org.kvon;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+
+/// An index of the key paths of a UTF-8 encoded KVON file. For every key
+/// which can be reached from the root through objects alone, it records the
+/// byte range of the key's lines - the line of the key and the lines of its
+/// value - together with the line number and the indent of the key. Paths
+/// are the keys separated by dots, as in `Parser.select`. The keys inside
+/// arrays are not indexed.
+///
+/// The index is saved as a sidecar file next to the source, see
+/// [IndexedFile], which reads single values out of the source with its help.
+public final class KeyPathIndex {
+	private static final int MAGIC = 0x4b564958;
+	private static final int VERSION = 1;
+
+	/// The lines of the key at `path`.
+	public static final class Entry {
+		public final String path;
+		/// The byte offset of the key's line.
+		public final long offset;
+		/// The byte offset right after the last line of the key's value.
+		public final long end;
+		/// The number of the key's line.
+		public final int lineNumber;
+		/// The indent of the key, which is the number of keys before it in
+		/// the path.
+		public final int indent;
+		/// The number of whitespaces before the key.
+		public final int width;
+
+		Entry(String path, long offset, long end, int lineNumber, int indent, int width) {
+			this.path = path;
+			this.offset = offset;
+			this.end = end;
+			this.lineNumber = lineNumber;
+			this.indent = indent;
+			this.width = width;
+		}
+	}
+
+	/// The size and modification time of the source when it was indexed.
+	final long sourceSize;
+	final long sourceModified;
+	private final HashMap<String, Entry> entries;
+
+	private KeyPathIndex(long sourceSize, long sourceModified, HashMap<String, Entry> entries) {
+		this.sourceSize = sourceSize;
+		this.sourceModified = sourceModified;
+		this.entries = entries;
+	}
+
+	/// Returns the entry of `path`, or null if it isn't indexed.
+	public Entry get(String path) {
+		return entries.get(path);
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	public Collection<Entry> entries() {
+		return Collections.unmodifiableCollection(entries.values());
+	}
+
+	/// Returns true if the index was built from `source` as it is now.
+	public boolean isUpToDate(Path source) throws IOException {
+		return Files.size(source) == sourceSize
+			&& Files.getLastModifiedTime(source).toMillis() == sourceModified;
+	}
+
+	/// Returns the path of the sidecar file of `source`.
+	public static Path sidecarOf(Path source) {
+		return Paths.get(source.toString() + ".kvonidx");
+	}
+
+	/// Parses the file at `source` once and indexes its key paths.
+	public static KeyPathIndex build(Path source) throws IOException, KvonException {
+		long modified = Files.getLastModifiedTime(source).toMillis();
+		Indexer indexer = new Indexer();
+		Parser parser = new Parser(indexer);
+		parser.setMetrics(null);
+
+		try (InputStream in = Files.newInputStream(source)) {
+			ByteLineReader lines = new ByteLineReader(in);
+			while (lines.next()) {
+				indexer.lineOffset = lines.offset;
+				indexer.lineEnd = lines.nextOffset;
+				indexer.lineNumber = parser.lineNumber;
+				indexer.lineWidth = lines.width;
+				parser.nextLine(lines.chars, 0, lines.length);
+			}
+
+			// the values still open end with the file
+			indexer.lineOffset = lines.nextOffset;
+			indexer.lineNumber = -1;
+			parser.endDocument();
+		}
+
+		HashMap<String, Entry> entries = new HashMap<>();
+		for (Indexer.Pending p: indexer.entries) {
+			entries.put(p.path, new Entry(p.path, p.offset, p.end, p.lineNumber, p.indent, p.width));
+		}
+		return new KeyPathIndex(Files.size(source), modified, entries);
+	}
+
+	/// Writes the index to `sidecar`. It is written to a temporary file first,
+	/// which then replaces the sidecar, so readers never see half of it.
+	public void save(Path sidecar) throws IOException {
+		Path directory = sidecar.toAbsolutePath().getParent();
+		Path temporary = Files.createTempFile(directory, sidecar.getFileName().toString(), ".tmp");
+		try {
+			write(temporary);
+			Files.move(temporary, sidecar, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temporary);
+		}
+	}
+
+	private void write(Path file) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(sourceSize);
+			out.writeLong(sourceModified);
+			out.writeInt(entries.size());
+			for (Entry entry: entries.values()) {
+				out.writeUTF(entry.path);
+				out.writeLong(entry.offset);
+				out.writeLong(entry.end);
+				out.writeInt(entry.lineNumber);
+				out.writeInt(entry.indent);
+				out.writeInt(entry.width);
+			}
+		}
+	}
+
+	/// Reads an index written by `save`.
+	public static KeyPathIndex load(Path sidecar) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(sidecar)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException("not a key path index: " + sidecar);
+			}
+
+			long sourceSize = in.readLong();
+			long sourceModified = in.readLong();
+			int count = in.readInt();
+			HashMap<String, Entry> entries = new HashMap<>(count * 2);
+			for (int i = 0; i < count; i++) {
+				Entry entry = new Entry(in.readUTF(), in.readLong(), in.readLong(), in.readInt(), in.readInt(), in.readInt());
+				entries.put(entry.path, entry);
+			}
+			return new KeyPathIndex(sourceSize, sourceModified, entries);
+		}
+	}
+
+	/// Records the keys reported by the parser, and the lines they span. The
+	/// positions are whatever the feeder of the lines sets `lineOffset` and
+	/// `lineEnd` to, byte offsets here.
+	static class Indexer implements KvonHandler {
+		static class Pending {
+			final String path;
+			final String key;
+			long offset;
+			int lineNumber;
+			final int indent;
+			final int width;
+			long end;
+
+			Pending(String path, String key, long offset, int lineNumber, int indent, int width) {
+				this.path = path;
+				this.key = key;
+				this.offset = offset;
+				this.lineNumber = lineNumber;
+				this.indent = indent;
+				this.width = width;
+			}
+		}
+
+		/// The line being parsed.
+		long lineOffset;
+		long lineEnd;
+		int lineNumber;
+		int lineWidth;
+
+		final ArrayList<Pending> entries = new ArrayList<>();
+
+		/// The open containers. A container is indexed if its keys are, which
+		/// is the case for the root and the objects of indexed keys.
+		private String[] paths = new String[8];
+		private boolean[] indexed = new boolean[8];
+		/// The key of each container whose value is being reported.
+		private Pending[] pending = new Pending[8];
+		private int depth = 0;
+
+		@Override
+		public void startObject() {
+			boolean isIndexed = depth == 0 || pending[depth - 1] != null;
+			open(depth == 0 ? "" : isIndexed ? pending[depth - 1].path : null, isIndexed);
+		}
+
+		@Override
+		public void endObject() {
+			close();
+		}
+
+		@Override
+		public void startArray() {
+			open(null, false);
+		}
+
+		@Override
+		public void endArray() {
+			close();
+		}
+
+		@Override
+		public void onKey(CharSequence key) {
+			if (!indexed[depth - 1]) {
+				return;
+			}
+
+			String parent = paths[depth - 1];
+			String path = parent.isEmpty() ? key.toString() : parent + "." + key;
+			Pending entry = new Pending(path, key.toString(), lineOffset, lineNumber, depth - 1, lineWidth);
+			entries.add(entry);
+			pending[depth - 1] = entry;
+		}
+
+		@Override
+		public void onText(CharSequence text) {
+			valueEnded();
+		}
+
+		@Override
+		public void onNumber(double number) {
+			valueEnded();
+		}
+
+		@Override
+		public void onNumberLiteral(char[] chars, int start, int end) {
+			valueEnded();
+		}
+
+		@Override
+		public void onBoolean(boolean b) {
+			valueEnded();
+		}
+
+		@Override
+		public void onNull() {
+			valueEnded();
+		}
+
+		private void open(String path, boolean isIndexed) {
+			if (depth == paths.length) {
+				paths = Arrays.copyOf(paths, depth * 2);
+				indexed = Arrays.copyOf(indexed, depth * 2);
+				pending = Arrays.copyOf(pending, depth * 2);
+			}
+			paths[depth] = path;
+			indexed[depth] = isIndexed;
+			pending[depth] = null;
+			depth++;
+		}
+
+		private void close() {
+			depth--;
+			paths[depth] = null;
+			pending[depth] = null;
+			if (depth > 0) {
+				valueEnded();
+			}
+		}
+
+		/// Ends the key whose value the top container has just received.
+		/// A value ending on the line of its key ends with that line, any
+		/// other ends right before the line which closed it.
+		private void valueEnded() {
+			Pending entry = pending[depth - 1];
+			if (entry == null) {
+				return;
+			}
+
+			entry.end = entry.lineNumber == lineNumber ? lineEnd : lineOffset;
+			pending[depth - 1] = null;
+		}
+	}
+
+	/// Splits UTF-8 encoded bytes into lines like [LineReader] does, and keeps
+	/// track of the byte offsets of the lines. Each line is decoded into
+	/// `chars[0, length)`.
+	static class ByteLineReader {
+		private final InputStream in;
+		private final byte[] buffer = new byte[1 << 16];
+		/// The buffer, read a word at a time by `Scan.indexOf`.
+		private final ByteBuffer words = Scan.wrap(buffer);
+		private int position;
+		private int limit;
+		/// The byte offset of `buffer[0]`.
+		private long bufferOffset;
+
+		private byte[] line = new byte[256];
+		char[] chars = new char[256];
+		int length;
+		/// The byte offsets of the line and of the line after it.
+		long offset;
+		long nextOffset;
+		/// The number of leading whitespaces of the line.
+		int width;
+
+		ByteLineReader(InputStream in) {
+			this.in = in;
+		}
+
+		boolean next() throws IOException {
+			if (!fill()) {
+				return false;
+			}
+
+			offset = bufferOffset + position;
+			int lineLength = 0;
+			boolean ended = false;
+			while (!ended) {
+				if (!fill()) {
+					break;
+				}
+
+				int from = position;
+				int newline = Scan.indexOf(words, position, limit, (byte) '\n');
+				position = newline >= 0 ? newline : limit;
+
+				int n = position - from;
+				if (lineLength + n > line.length) {
+					line = Arrays.copyOf(line, Math.max(line.length * 2, lineLength + n));
+				}
+				System.arraycopy(buffer, from, line, lineLength, n);
+				lineLength += n;
+
+				if (position < limit) {
+					// skip the `\n` and a `\r` after it
+					position++;
+					ended = true;
+					if (fill() && buffer[position] == '\r')
+						position++;
+				}
+			}
+			nextOffset = bufferOffset + position;
+
+			decode(lineLength);
+			return true;
+		}
+
+		/// Makes sure there is a byte to read. Returns false at the end.
+		private boolean fill() throws IOException {
+			if (position < limit) {
+				return true;
+			}
+
+			bufferOffset += limit;
+			position = 0;
+			limit = 0;
+			int read;
+			do {
+				read = in.read(buffer);
+			} while (read == 0);
+
+			if (read < 0) {
+				return false;
+			}
+			limit = read;
+			return true;
+		}
+
+		private void decode(int lineLength) {
+			width = 0;
+			while (width < lineLength && (line[width] == ' ' || line[width] == '\t'))
+				width++;
+
+			boolean ascii = true;
+			for (int i = 0; i < lineLength; i++) {
+				if (line[i] < 0) {
+					ascii = false;
+					break;
+				}
+			}
+
+			if (ascii) {
+				if (chars.length < lineLength) {
+					chars = new char[Math.max(chars.length * 2, lineLength)];
+				}
+				for (int i = 0; i < lineLength; i++)
+					chars[i] = (char) line[i];
+				length = lineLength;
+			} else {
+				String s = new String(line, 0, lineLength, StandardCharsets.UTF_8);
+				chars = s.toCharArray();
+				length = chars.length;
+			}
+		}
+	}
+}
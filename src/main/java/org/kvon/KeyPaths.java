@@ -0,0 +1,40 @@
+package org.kvon;
+
+import java.util.HashMap;
+
+/// A set of key paths such as `database.pool.size`, as a tree of keys. Each
+/// node is the object at the path leading to it.
+class KeyPaths {
+	private final HashMap<String, KeyPaths> children;
+	/// Whether the whole value at this path is selected.
+	boolean selected;
+	/// The number of keys of the longest path below this node.
+	int depth;
+
+	KeyPaths() {
+		this.children = new HashMap<>();
+		this.selected = false;
+		this.depth = 0;
+	}
+
+	/// Builds the tree of `paths`, whose keys are separated by dots.
+	static KeyPaths of(String... paths) {
+		KeyPaths root = new KeyPaths();
+		for (String path: paths) {
+			KeyPaths node = root;
+			String[] keys = path.split("\\.");
+			root.depth = Math.max(root.depth, keys.length);
+			for (String key: keys) {
+				node = node.children.computeIfAbsent(key, k -> new KeyPaths());
+			}
+			node.selected = true;
+		}
+		return root;
+	}
+
+	/// Returns the node of `key` below this one, or null if no path goes
+	/// through it.
+	KeyPaths child(String key) {
+		return children.get(key);
+	}
+}
@@ -0,0 +1,181 @@
+package org.kvon;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/// A configuration which is reloaded whenever its file changes.
+///
+/// The file is watched by a daemon thread, which parses the new version and
+/// publishes it as a whole, so `get` never blocks and never returns a tree
+/// which is still being built. Listeners are called on the watching thread,
+/// with the key paths whose values changed.
+///
+/// ```
+/// KvonConfigSource config = KvonConfigSource.watch(Paths.get("app.kvon"));
+/// config.addListener((paths, previous, current) -> {
+///     if (paths.contains("database.pool.size"))
+///         resizePool(current.get("database").get("pool").get("size").asLong());
+/// });
+/// ```
+///
+/// The versions are frozen, see `Value.freeze`, so any number of threads can
+/// read them. A version which fails to parse is reported to
+/// `Listener.onError`, and the previous one stays current.
+public class KvonConfigSource implements Closeable {
+	/// How long to wait for more events before reloading, since an editor
+	/// saving a file usually causes several of them.
+	private static final long SETTLE_MILLIS = 50;
+
+	public interface Listener {
+		/// Called after `current` has replaced `previous`, with the paths of
+		/// the keys that were added, removed or changed. Paths are the keys
+		/// separated by dots, as in `Parser.select`. An array is reported as
+		/// a whole, by the path of its key. An exception thrown here doesn't
+		/// keep the other listeners from being called: it goes to the
+		/// uncaught exception handler of the calling thread.
+		void onChange(Set<String> paths, Value previous, Value current);
+
+		/// Called when a new version of the file can't be read or parsed.
+		default void onError(Exception e) {
+		}
+	}
+
+	private final Path file;
+	private final AtomicReference<Value> snapshot;
+	private final CopyOnWriteArrayList<Listener> listeners;
+	private final WatchService watchService;
+	private final Thread thread;
+
+	private KvonConfigSource(Path file, Value initial, WatchService watchService) {
+		this.file = file;
+		this.snapshot = new AtomicReference<>(initial);
+		this.listeners = new CopyOnWriteArrayList<>();
+		this.watchService = watchService;
+		this.thread = new Thread(this::watchLoop, "kvon-config-" + file.getFileName());
+		this.thread.setDaemon(true);
+	}
+
+	/// Parses the file at `path` and starts watching it.
+	public static KvonConfigSource watch(Path path) throws IOException, KvonException {
+		Path file = path.toAbsolutePath();
+		Value initial = Value.freeze(Parser.parse(file));
+
+		// only directories can be watched, so the events are filtered by name
+		WatchService watchService = FileSystems.getDefault().newWatchService();
+		try {
+			file.getParent().register(
+				watchService,
+				StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_MODIFY
+			);
+		} catch (IOException e) {
+			watchService.close();
+			throw e;
+		}
+
+		KvonConfigSource source = new KvonConfigSource(file, initial, watchService);
+		source.thread.start();
+		return source;
+	}
+
+	/// Returns the current version of the configuration.
+	public Value get() {
+		return snapshot.get();
+	}
+
+	public Path getFile() {
+		return file;
+	}
+
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	/// Parses the file now, and publishes it if anything changed. Returns the
+	/// changed paths, which are empty if the current version is kept.
+	public Set<String> reload() throws IOException, KvonException {
+		synchronized (this) {
+			Value current = Value.freeze(Parser.parse(file));
+			Value previous = snapshot.get();
+
+			Set<String> paths = changedPaths(previous, current);
+			if (!paths.isEmpty()) {
+				snapshot.set(current);
+				for (Listener listener: listeners) {
+					try {
+						listener.onChange(paths, previous, current);
+					} catch (RuntimeException e) {
+						// the new version is published, whatever the listener did
+						Thread thread = Thread.currentThread();
+						thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+					}
+				}
+			}
+			return paths;
+		}
+	}
+
+	/// Stops watching the file. The last version stays available.
+	@Override
+	public void close() throws IOException {
+		watchService.close();
+		thread.interrupt();
+	}
+
+	private void watchLoop() {
+		try {
+			while (true) {
+				WatchKey key = watchService.take();
+				boolean changed = false;
+				do {
+					for (WatchEvent<?> event: key.pollEvents()) {
+						if (event.kind() == StandardWatchEventKinds.OVERFLOW || file.getFileName().equals(event.context())) {
+							changed = true;
+						}
+					}
+					key.reset();
+					key = watchService.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+				} while (key != null);
+
+				if (changed) {
+					try {
+						reload();
+					} catch (IOException | KvonException | RuntimeException e) {
+						for (Listener listener: listeners) {
+							listener.onError(e);
+						}
+					}
+				}
+			}
+		} catch (ClosedWatchServiceException | InterruptedException e) {
+			// closed
+		}
+	}
+
+	/// Returns the paths of the keys whose values differ between the two
+	/// versions, in order.
+	static Set<String> changedPaths(Value previous, Value current) {
+		TreeSet<String> paths = new TreeSet<>();
+		for (Patch.Change change: Patch.diff(previous, current).getChanges()) {
+			paths.add(change.getKeyPath());
+		}
+		return Collections.unmodifiableSet(paths);
+	}
+}
@@ -32,6 +32,14 @@ public class KvonException extends Exception {
 	public final KvonBaseExceptionType type;
 
 	public KvonException(int lineNumber, int columnNumber, String line, KvonBaseExceptionType type) {
+		this(lineNumber, columnNumber, line, type, true);
+	}
+
+	/// Like the above, but the stack trace is only captured if `stackTrace`
+	/// is true. Without it the exception is much cheaper to create, which
+	/// matters when errors are expected, see `Parser.collectErrors`.
+	public KvonException(int lineNumber, int columnNumber, String line, KvonBaseExceptionType type, boolean stackTrace) {
+		super(null, null, true, stackTrace);
 		this.lineNumber = lineNumber;
 		this.columnNumber = columnNumber;
 		this.line = line;
@@ -0,0 +1,152 @@
+package org.kvon;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+import org.kvon.encoders.ExpandedEncoder;
+
+/// Emits a JDK Flight Recorder event for every document parsed or encoded,
+/// `org.kvon.Parse` and `org.kvon.Encode`, with the statistics of
+/// [KvonMetrics]. The events carry the stack trace and the thread of the
+/// caller, so a slow request can be traced to its document, which the
+/// content hash tells apart from the others.
+///
+/// ```
+/// KvonFlightRecorder.install();
+/// ```
+///
+/// Needs a JVM with Flight Recorder: Java 11 and later, or 8u262 and later.
+/// This is the only class of the library which uses it, so it is only
+/// loaded when installed. While no recording is running, the events are
+/// dropped right away.
+///
+/// An event begins when the parser or the encoder starts the document, so
+/// its duration is the time spent on it. Documents started before a
+/// recording was, aren't recorded.
+public class KvonFlightRecorder implements KvonMetrics {
+	@Name("org.kvon.Parse")
+	@Label("KVON Parse")
+	@Category("KVON")
+	@Description("A document parsed")
+	@StackTrace
+	static class ParseEvent extends Event {
+		@Label("Lines")
+		int lines;
+
+		@Label("Characters")
+		long characters;
+
+		@Label("Nodes")
+		long nodes;
+
+		@Label("Maximum Depth")
+		int maxDepth;
+
+		@Label("Multi-line String Characters")
+		long multiLineCharacters;
+
+		@Label("Elapsed")
+		@Timespan(Timespan.NANOSECONDS)
+		long elapsed;
+
+		@Label("Content Hash")
+		long contentHash;
+	}
+
+	@Name("org.kvon.Encode")
+	@Label("KVON Encode")
+	@Category("KVON")
+	@Description("A value encoded")
+	@StackTrace
+	static class EncodeEvent extends Event {
+		@Label("Lines")
+		int lines;
+
+		@Label("Characters")
+		long characters;
+
+		@Label("Nodes")
+		long nodes;
+
+		@Label("Maximum Depth")
+		int maxDepth;
+
+		@Label("Multi-line String Characters")
+		long multiLineCharacters;
+
+		@Label("Elapsed")
+		@Timespan(Timespan.NANOSECONDS)
+		long elapsed;
+
+		@Label("Content Hash")
+		long contentHash;
+	}
+
+	/// Makes the parsers created from now on and the encoder emit events.
+	public static KvonFlightRecorder install() {
+		KvonFlightRecorder recorder = new KvonFlightRecorder();
+		Parser.setDefaultMetrics(recorder);
+		ExpandedEncoder.setMetrics(recorder);
+		return recorder;
+	}
+
+	@Override
+	public Object startParse() {
+		ParseEvent event = new ParseEvent();
+		if (!event.isEnabled()) {
+			return null;
+		}
+		event.begin();
+		return event;
+	}
+
+	@Override
+	public void onParse(Document document) {
+		if (!(document.token instanceof ParseEvent)) {
+			return;
+		}
+
+		ParseEvent event = (ParseEvent) document.token;
+		event.end();
+		event.lines = document.lines;
+		event.characters = document.characters;
+		event.nodes = document.nodes;
+		event.maxDepth = document.maxDepth;
+		event.multiLineCharacters = document.multiLineCharacters;
+		event.elapsed = document.elapsedNanos;
+		event.contentHash = document.contentHash;
+		event.commit();
+	}
+
+	@Override
+	public Object startEncode() {
+		EncodeEvent event = new EncodeEvent();
+		if (!event.isEnabled()) {
+			return null;
+		}
+		event.begin();
+		return event;
+	}
+
+	@Override
+	public void onEncode(Document document) {
+		if (!(document.token instanceof EncodeEvent)) {
+			return;
+		}
+
+		EncodeEvent event = (EncodeEvent) document.token;
+		event.end();
+		event.lines = document.lines;
+		event.characters = document.characters;
+		event.nodes = document.nodes;
+		event.maxDepth = document.maxDepth;
+		event.multiLineCharacters = document.multiLineCharacters;
+		event.elapsed = document.elapsedNanos;
+		event.contentHash = document.contentHash;
+		event.commit();
+	}
+}
@@ -0,0 +1,42 @@
+package org.kvon;
+
+/// Receives the structure of a document as it is parsed, see
+/// `Parser.parse(Reader, KvonHandler)`. The callbacks mirror the
+/// [KvonToken]s: a document is a single object, so the first callback is
+/// `startObject` and the last one is `endObject`, and inside an object every
+/// value is preceded by `onKey`.
+///
+/// Values are passed as primitives, the parser doesn't allocate a [Value] or
+/// a [PrimitiveValue] for them. A `CharSequence` is only valid during the
+/// callback - call `toString` on it to keep it.
+public interface KvonHandler {
+	void startObject();
+
+	void endObject();
+
+	void startArray();
+
+	void endArray();
+
+	void onKey(CharSequence key);
+
+	void onText(CharSequence text);
+
+	/// A multi-line string. Called once all of its lines have been read.
+	default void onMultiLineText(CharSequence text) {
+		onText(text);
+	}
+
+	void onNumber(double number);
+
+	/// A number, given as the range `[start, end)` of `chars` holding its
+	/// literal. Lets a handler keep all the digits or convert them lazily. By
+	/// default the literal is converted and passed to `onNumber`.
+	default void onNumberLiteral(char[] chars, int start, int end) {
+		onNumber(Numbers.parseDouble(chars, start, end));
+	}
+
+	void onBoolean(boolean b);
+
+	void onNull();
+}
@@ -0,0 +1,76 @@
+package org.kvon;
+
+/// Receives statistics about the documents parsed by a [Parser] and encoded
+/// by the `ExpandedEncoder`, for monitoring. See `Parser.setMetrics`,
+/// `Parser.setDefaultMetrics` and `ExpandedEncoder.setMetrics`. Without
+/// metrics, the parser checks for them once per line and the encoder once
+/// per call, and nothing is counted.
+///
+/// The callbacks run on the thread of the parser or the encoder, right
+/// before and after the document, so they should be quick and thread-safe.
+/// [KvonFlightRecorder] turns the statistics into Flight Recorder events.
+public interface KvonMetrics {
+	/// The parameters of `Document.contentHash`, a polynomial hash: it starts
+	/// at `HASH_OFFSET`, and every character `c` makes it
+	/// `hash * HASH_PRIME + c`. So the hashes of consecutive parts of a
+	/// document combine into the hash of the whole: with `n` characters in
+	/// the second part, it is `(first - HASH_OFFSET) * HASH_PRIME^n + second`.
+	long HASH_OFFSET = 0xcbf29ce484222325L;
+	long HASH_PRIME = 0x100000001b3L;
+
+	/// The statistics of a document.
+	final class Document {
+		public final int lines;
+		public final long characters;
+		/// The objects, arrays and primitives of the document.
+		public final long nodes;
+		/// The deepest nesting of objects and arrays, the root being 1.
+		public final int maxDepth;
+		/// The characters of the multi-line strings.
+		public final long multiLineCharacters;
+		public final long elapsedNanos;
+		/// A hash of the characters of the document, lines being followed by a
+		/// `\n`, to tell documents apart.
+		public final long contentHash;
+		/// What `startParse` or `startEncode` returned for the document.
+		public final Object token;
+
+		public Document(int lines, long characters, long nodes, int maxDepth, long multiLineCharacters, long elapsedNanos, long contentHash) {
+			this(lines, characters, nodes, maxDepth, multiLineCharacters, elapsedNanos, contentHash, null);
+		}
+
+		public Document(int lines, long characters, long nodes, int maxDepth, long multiLineCharacters, long elapsedNanos, long contentHash, Object token) {
+			this.lines = lines;
+			this.characters = characters;
+			this.nodes = nodes;
+			this.maxDepth = maxDepth;
+			this.multiLineCharacters = multiLineCharacters;
+			this.elapsedNanos = elapsedNanos;
+			this.contentHash = contentHash;
+			this.token = token;
+		}
+	}
+
+	/// Called when the parser starts a document, right before its first
+	/// line. The result is handed back as the `token` of the document, so it
+	/// may be used to time it. Every start is followed by `onParse`, unless
+	/// the document fails to parse, so the token shouldn't hold anything
+	/// which must be released.
+	default Object startParse() {
+		return null;
+	}
+
+	/// Called before a value is encoded, like `startParse`.
+	default Object startEncode() {
+		return null;
+	}
+
+	/// Called when the parser reaches the end of a document. Documents which
+	/// fail to parse aren't reported.
+	default void onParse(Document document) {
+	}
+
+	/// Called once a value has been encoded.
+	default void onEncode(Document document) {
+	}
+}
@@ -0,0 +1,169 @@
+package org.kvon;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.util.NoSuchElementException;
+
+/// A pull based reader which reports a document as a sequence of
+/// [KvonToken]s without building a [Value] tree. The document is read line by
+/// line, so only the tokens of the current line are held in memory.
+///
+/// ```
+/// KvonReader reader = new KvonReader(new FileReader(file));
+/// while (reader.hasNext()) {
+///     if (reader.next() == KvonToken.KEY && reader.getKey().equals("size")) {
+///         reader.next();
+///         return reader.getNumber();
+///     }
+/// }
+/// ```
+public class KvonReader {
+	private final LineReader lines;
+	private final Parser parser;
+	private final TokenQueue tokens;
+	private boolean finished;
+
+	private KvonToken token;
+	/// The payload of the current token.
+	String text;
+	double number;
+	/// The literal of the current `NUMBER`, empty if it was given as a
+	/// double. The buffer is reused for every number.
+	private char[] literal = new char[32];
+	private int literalLength;
+
+	public KvonReader(Reader reader) {
+		this.lines = new LineReader(reader);
+		this.tokens = new TokenQueue();
+		this.parser = new Parser(tokens);
+		this.finished = false;
+		this.token = null;
+	}
+
+	public static KvonReader fromString(String s) {
+		return new KvonReader(new StringReader(s));
+	}
+
+	/// Makes the reader reuse the strings of repeated keys and short texts,
+	/// see `Parser.setInterner`.
+	public void setInterner(StringInterner interner) {
+		parser.setInterner(interner);
+	}
+
+	/// Returns true if there are more tokens. Reads lines until at least one
+	/// more token is available or the input is exhausted.
+	public boolean hasNext() throws IOException, KvonException {
+		while (tokens.isEmpty()) {
+			if (finished) {
+				return false;
+			}
+
+			if (lines.next()) {
+				parser.nextLine(lines.chars, lines.start, lines.end);
+			} else {
+				parser.endDocument();
+				finished = true;
+			}
+		}
+		return true;
+	}
+
+	/// Moves to the next token and returns it.
+	public KvonToken next() throws IOException, KvonException {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+
+		token = tokens.poll();
+		text = tokens.text;
+		number = tokens.number;
+		// copied before the queue reuses its buffer
+		literalLength = tokens.literalEnd - tokens.literalStart;
+		if (literalLength > literal.length) {
+			literal = new char[Math.max(literal.length * 2, literalLength)];
+		}
+		System.arraycopy(tokens.literals, tokens.literalStart, literal, 0, literalLength);
+		return token;
+	}
+
+	/// Returns the current token, or null if `next` hasn't been called yet.
+	public KvonToken getToken() {
+		return token;
+	}
+
+	/// Returns the key of a `KEY` token.
+	public String getKey() {
+		return token == KvonToken.KEY ? text : null;
+	}
+
+	/// Returns the string of a `TEXT` or `MULTILINE_TEXT` token.
+	public String getText() {
+		return token == KvonToken.TEXT || token == KvonToken.MULTILINE_TEXT ? text : null;
+	}
+
+	/// Returns the value of a `NUMBER` token, rounded to the nearest double.
+	/// See `getLong` and `getBigDecimal` for numbers with more digits than a
+	/// double holds.
+	public double getNumber() {
+		return number;
+	}
+
+	/// Returns the value of a `NUMBER` token truncated to a long, with all
+	/// its digits and without allocating. Numbers beyond the range of a long
+	/// saturate, like `Value.asLong`.
+	public long getLong() {
+		return literalLength > 0 ? Numbers.parseLong(literal, 0, literalLength) : (long) number;
+	}
+
+	/// Returns the exact value of a `NUMBER` token, or null for other tokens.
+	public BigDecimal getBigDecimal() {
+		if (token != KvonToken.NUMBER) {
+			return null;
+		}
+		return literalLength > 0 ? new BigDecimal(literal, 0, literalLength) : new BigDecimal(number);
+	}
+
+	/// Returns the literal of a `NUMBER` token as written in the document,
+	/// or null for other tokens.
+	public String getNumberLiteral() {
+		if (token != KvonToken.NUMBER) {
+			return null;
+		}
+		return literalLength > 0 ? new String(literal, 0, literalLength) : BigDecimal.valueOf(number).toPlainString();
+	}
+
+	/// Returns the value of a `BOOLEAN` token.
+	public boolean getBoolean() {
+		return number != 0;
+	}
+
+	/// Returns the line number of the line that is currently being read.
+	public int getLineNumber() {
+		return parser.lineNumber;
+	}
+
+	/// Skips the value the reader is positioned on. If the current token is
+	/// `KEY`, skips the value of the key. If it starts an object or an array,
+	/// skips until its end, which becomes the current token.
+	public void skipValue() throws IOException, KvonException {
+		if (token == KvonToken.KEY) {
+			next();
+		}
+
+		if (token == null || !token.isStart()) {
+			return;
+		}
+
+		int depth = 1;
+		while (depth > 0) {
+			KvonToken t = next();
+			if (t.isStart()) {
+				depth++;
+			} else if (t.isEnd()) {
+				depth--;
+			}
+		}
+	}
+}
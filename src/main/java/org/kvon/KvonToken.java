@@ -0,0 +1,28 @@
+package org.kvon;
+
+/// The tokens produced by [KvonReader]. A document is always a single
+/// object, so its tokens start with `START_OBJECT` and end with
+/// `END_OBJECT`. Inside an object every value is preceded by a `KEY`.
+public enum KvonToken {
+	START_OBJECT,
+	END_OBJECT,
+	START_ARRAY,
+	END_ARRAY,
+	KEY,
+	NUMBER,
+	TEXT,
+	BOOLEAN,
+	NULL,
+	/// A multi-line string. Produced once the whole string has been read.
+	MULTILINE_TEXT;
+
+	/// Returns true for the tokens that open a nested structure.
+	public boolean isStart() {
+		return this == START_OBJECT || this == START_ARRAY;
+	}
+
+	/// Returns true for the tokens that close a nested structure.
+	public boolean isEnd() {
+		return this == END_OBJECT || this == END_ARRAY;
+	}
+}
@@ -1,22 +1,12 @@
 package org.kvon;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
-import java.util.Stack;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public class LineParser {
-	private static class State {
-		int i;
-		String left;
-
-		State(int i, String left) {
-			this.i = i;
-			this.left = left;
-		}
-	}
+	private enum Literal { TEXT, NUMBER, BOOLEAN, NULL }
 
 	public static class IndentCount {
 		public int spaces;
@@ -32,62 +22,128 @@ public class LineParser {
 		}
 	}
 
-	private final int lineNumber;
-	private final String line;
-	private State state;
-	private final Stack<State> recorded;
+	private int lineNumber;
+	private StringInterner interner;
+	/// The characters of the line. Only the range `[start, end)` belongs to
+	/// the line, the rest of the array is never read.
+	private char[] chars;
+	private int start;
+	private int end;
+	/// The cursor - an absolute index into `chars`.
+	private int i;
+	/// Cursors saved by `record`, restored by `restore`.
+	private int[] recorded;
+	private int recordedCount;
+
+	/// The last primitive found by `scanPrimitive`.
+	private Literal literal;
+	int literalStart;
+	int literalEnd;
+	private String literalText;
+	private boolean literalBoolean;
+
+	/// Returned by `nextWhitespaces`.
+	private final IndentCount indentCount;
+	/// Whether the errors capture their stack traces.
+	boolean stackTraces = true;
 
 	public LineParser(int lineNumber, String line) {
+		this(lineNumber, line.toCharArray(), 0, line.length());
+	}
+
+	/// Wraps the range `[start, end)` of `chars` without copying it.
+	public LineParser(int lineNumber, char[] chars, int start, int end) {
+		this(lineNumber, chars, start, end, null);
+	}
+
+	/// Like the above, but keys and text literals are looked up in
+	/// `interner`, if it isn't null.
+	public LineParser(int lineNumber, char[] chars, int start, int end, StringInterner interner) {
+		this.recorded = new int[2];
+		this.indentCount = IndentCount.zero();
+		reset(lineNumber, chars, start, end, interner);
+	}
+
+	/// Moves the parser to another line, so that a single parser serves all
+	/// the lines of a document.
+	public void reset(int lineNumber, char[] chars, int start, int end, StringInterner interner) {
 		this.lineNumber = lineNumber;
-		this.line = line;
-		this.state = new State(0, line);
-		recorded = new Stack<>();
+		this.interner = interner;
+		this.chars = chars;
+		this.start = start;
+		this.end = end;
+		this.i = start;
+		this.recordedCount = 0;
+		this.literalText = null;
 	}
 
 	public KvonException generateError(KvonException.KvonBaseExceptionType type) {
-		return new KvonException(lineNumber, state.i, line, type);
+		return new KvonException(lineNumber, i - start, new String(chars, start, end - start), type, stackTraces);
 	}
 
 	/// Return the remaining str of the line.
 	public String consumeRest() {
-		String ret = this.state.left;
-		this.state.i = this.line.length();
-		this.state.left = "";
+		String ret = new String(chars, i, end - i);
+		this.i = end;
 
 		return ret;
 	}
 
+	/// Appends the remaining characters of the line to `sb`.
+	public void consumeRest(StringBuilder sb) {
+		sb.append(chars, i, end - i);
+		this.i = end;
+	}
+
 	/// Record the current state of the line parser.
 	private void record() {
-		this.recorded.push(new State(this.state.i, this.state.left));
+		if (recordedCount == recorded.length) {
+			recorded = Arrays.copyOf(recorded, recorded.length * 2);
+		}
+		recorded[recordedCount++] = i;
 	}
 
 	/// Restore the last recorded state of the line parser.
 	private void restore() {
-		this.state = this.recorded.pop();
+		this.i = recorded[--recordedCount];
 	}
 
 	/// Remove the last recorded state without changing the current one.
 	private void cancelRestore() {
-		this.recorded.pop();
+		recordedCount--;
 	}
 
 	/// Returns whether or not the end of the line has been reached.
 	public boolean reached_end() {
-		return this.state.left.length() == 0;
+		return i >= end;
 	}
 
 	/// Returns true if the remaining part of the line starts with `s`.
 	public boolean see(String s){
-		return this.state.left.startsWith(s);
+		return seeAt(i, s);
+	}
+
+	/// Returns true if the next character is `c`.
+	public boolean see(char c) {
+		return i < end && chars[i] == c;
 	}
 
 	/// If sees `s` returns true and advances the parser by the length of `s`.
 	/// Otherwise returns false.
 	public boolean have(String s) {
 		if (see(s)) {
-			state.i += s.length();
-			state.left = this.state.left.substring(s.length());
+			i += s.length();
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	/// If sees `c` returns true and advances the parser by one character.
+	/// Otherwise returns false.
+	public boolean have(char c) {
+		if (see(c)) {
+			i += 1;
 			return true;
 		} else {
 			return false;
@@ -113,61 +169,62 @@ public class LineParser {
 	}
 
 	public boolean seeEndOrComment() {
-		String left = trimStart(state.left);
-		return left.length() == 0 || left.startsWith("#");
+		int j = skipWhitespaces(i);
+		return j >= end || chars[j] == '#';
 	}
 
 	/// Consumes a single character.
 	public void advance() {
-		this.state.left = this.state.left.substring(1);
-		this.state.i += 1;
+		this.i += 1;
 	}
 
 	/// Consumes `amount` of characters.
 	public void advance_by(int amount) {
-		this.state.left = this.state.left.substring(amount);
-		this.state.i += amount;
+		this.i += amount;
 	}
 
 	/// Consumes the whitespaces and returns the tuple
-	/// (tabs count, spaces count).
+	/// (tabs count, spaces count). The tuple is reused by the next call.
 	public IndentCount nextWhitespaces() {
-		IndentCount indentCount = IndentCount.zero();
+		indentCount.spaces = 0;
+		indentCount.tabs = 0;
 
 		// counts how many tabs and spaces were seen until the next non
 		// whitespace character, or the end of the file
-		while (this.state.left.length() > 0) {
-			if (this.state.left.startsWith(" ")) {
+		while (i < end) {
+			char c = chars[i];
+			if (c == ' ') {
 				indentCount.spaces += 1;
-				this.advance();
-			} else if (this.state.left.startsWith("\t")) {
+			} else if (c == '\t') {
 				indentCount.tabs += 1;
-				this.advance();
 			} else {
 				break;
 			}
+			i += 1;
 		}
 		return indentCount;
 	}
 
 	/// Advances past all the leading whitespaces.
 	public void consumeWhitespaces() {
-		int startLen = this.state.left.length();
-		this.state.left = trimStart(this.state.left);
-		this.state.i += startLen - this.state.left.length();
+		this.i = skipWhitespaces(i);
 	}
 
 	// helper function for `parse_string_literal`
-	private String parseStringLiteralWith(String escape) throws KvonException {
-		int start = this.state.i;
+	private String parseStringLiteralWith(char quote, int count) throws KvonException {
+		int literalStart = this.i;
 		while (true) {
-			if (this.reached_end()) {
+			// only a quote can start the closing run
+			int next = Scan.indexOf(chars, i, end, quote);
+			if (next < 0) {
+				this.i = end;
 				throw generateError(new KvonException.UnclosedString());
 			}
 
-			if (see(escape)) {
-				String s = this.line.substring(start, this.state.i);
-				advance_by(escape.length());
+			this.i = next;
+			if (seeRun(quote, count)) {
+				String s = newString(literalStart, i);
+				advance_by(count);
 				return s;
 			}
 
@@ -178,40 +235,30 @@ public class LineParser {
 	/// Tries parsing a string literal, returns `None` if no literal found.
 	/// Returns and error if the string literal is invalid.
 	public Optional<String> parseStringLiteral() throws KvonException {
-		if (see("'")) {
-			int start = this.state.i;
-			while (this.have("'"));
-			String escape = this.line.substring(start, this.state.i);
-
-			return Optional.of(this.parseStringLiteralWith(escape));
-		} else if (see("\"")) {
-			int start = this.state.i;
-			while (this.have("\""));
-			String escape = this.line.substring(start, this.state.i);
-
-			return Optional.of(this.parseStringLiteralWith(escape));
+		return Optional.ofNullable(scanStringLiteral());
+	}
+
+	/// Like `parseStringLiteral`, but returns null if no literal found.
+	private String scanStringLiteral() throws KvonException {
+		if (see('\'') || see('"')) {
+			char quote = chars[i];
+			int quoteStart = this.i;
+			while (this.have(quote));
+
+			return this.parseStringLiteralWith(quote, this.i - quoteStart);
 		} else {
-			return Optional.empty();
+			return null;
 		}
 	}
 
 	public String parseKey() throws KvonException {
-		Optional<String> literal = parseStringLiteral();
-		if (literal.isPresent()) {
-			return literal.get();
+		String literal = scanStringLiteral();
+		if (literal != null) {
+			return literal;
 		} else {
-			int startLen = this.state.left.length();
-			String source = this.state.left;
-
-			while (state.left.length() > 0) {
-				if (!seeAny(new String[]{" ", "\t", ":", "#", ";"})) {
-					advance();
-				} else {
-					break;
-				}
-			}
-
-			return source.substring(0, startLen - this.state.left.length());
+			int keyStart = this.i;
+			this.i = Scan.skipKey(chars, i, end);
+			return newString(keyStart, i);
 		}
 	}
 
@@ -221,7 +268,7 @@ public class LineParser {
 		String key = this.parseKey();
 
 		this.consumeWhitespaces();
-		if (have(":")) {
+		if (have(':')) {
 			this.cancelRestore();
 			return key;
 		} else {
@@ -231,24 +278,43 @@ public class LineParser {
 	}
 
 	public Optional<Float> parseNumericalLiteral() {
-		String r = "^(-?[0-9]*(?:\\.[0-9]+)?).*$";
-		Pattern pattern = Pattern.compile(r);
-
-		// if the regex captures, and the the value can be unwrapped, advance
-		// and return
-		Matcher m = pattern.matcher(this.state.left);
-		if (m.find()) {
-			if (m.groupCount() > 0) {
-				String value = m.group(1);
-				this.advance_by(value.length());
-				try {
-					return Optional.of(Float.parseFloat(value));
-				} catch (NumberFormatException ignored) {
-				}
+		if (scanNumericalLiteral()) {
+			return Optional.of((float) Numbers.parseDouble(chars, literalStart, literalEnd));
+		} else {
+			return Optional.empty();
+		}
+	}
+
+	/// Scans a numerical literal - `-?[0-9]*(\.[0-9]+)?` with at least one
+	/// digit - into `[literalStart, literalEnd)`. The literal isn't converted,
+	/// so numbers nobody reads never pay for it. Returns false without
+	/// consuming anything if there is no literal.
+	private boolean scanNumericalLiteral() {
+		int j = i;
+		if (j < end && chars[j] == '-') {
+			j++;
+		}
+
+		int digitsStart = j;
+		while (j < end && isDigit(chars[j])) {
+			j++;
+		}
+		boolean hasIntegerDigits = j > digitsStart;
+
+		// a fraction needs at least one digit after the dot
+		if (j + 1 < end && chars[j] == '.' && isDigit(chars[j + 1])) {
+			j += 2;
+			while (j < end && isDigit(chars[j])) {
+				j++;
 			}
+		} else if (!hasIntegerDigits) {
+			return false;
 		}
 
-		return Optional.empty();
+		literalStart = i;
+		literalEnd = j;
+		i = j;
+		return true;
 	}
 
 	public Optional<Boolean> parseBooleanLiteral() {
@@ -272,12 +338,12 @@ public class LineParser {
 			consumeWhitespaces();
 
 			// end of array
-			if (have("]") ){
+			if (have(']') ){
 				break;
 			}
 
 			// new sub array
-			if (have("[")) {
+			if (have('[')) {
 				values.add(nextInlineArray());
 				continue;
 			}
@@ -296,7 +362,7 @@ public class LineParser {
 	}
 
 	public Optional<Value> parseInlineArray() throws KvonException {
-		if (have("[")) {
+		if (have('[')) {
 			return Optional.of(this.nextInlineArray());
 		} else {
 			return Optional.empty();
@@ -304,32 +370,100 @@ public class LineParser {
 	}
 
 	public Optional<PrimitiveValue> parsePrimitive() throws KvonException {
-		Optional<String> text;
-		Optional<Float> number;
-		Optional<Boolean> bool;
-
-		if ((text = parseStringLiteral()).isPresent()) {
-			return Optional.of(PrimitiveValue.text(text.get()));
-		} else if ((number = parseNumericalLiteral()).isPresent()) {
-			return Optional.of(PrimitiveValue.number(number.get()));
-		} else if ((bool = parseBooleanLiteral()).isPresent()) {
-			return Optional.of(PrimitiveValue.bool(bool.get()));
-		} else if (parseNullLiteral()) {
-			return Optional.of(PrimitiveValue.none());
-		} else {
+		if (!scanPrimitive()) {
 			return Optional.empty();
 		}
+
+		switch (literal) {
+			case TEXT:
+				return Optional.of(PrimitiveValue.text(literalText));
+			case NUMBER:
+				return Optional.of(PrimitiveValue.numberLiteral(new String(chars, literalStart, literalEnd - literalStart)));
+			case BOOLEAN:
+				return Optional.of(PrimitiveValue.bool(literalBoolean));
+			default:
+				return Optional.of(PrimitiveValue.none());
+		}
 	}
 
-	/// Helper for `haveIndentions`
-	private boolean haveIndentionsHelper(Indention indention, int amount) {
-		if (indention instanceof Indention.Tabs) {
-			for (int i = 0; i < amount; ++i) {
-				if (see(" ")) {
+	/// Parses a primitive without allocating a value for it. The kind of the
+	/// literal is decided by its first character, so each literal is scanned
+	/// once. Returns false, without consuming anything, if no primitive found.
+	/// Otherwise the primitive spans `[literalStart, literalEnd)` and can be
+	/// reported with `reportPrimitive`.
+	boolean scanPrimitive() throws KvonException {
+		if (reached_end()) {
+			return false;
+		}
+
+		int literalStart = i;
+		switch (chars[i]) {
+			case '\'':
+			case '"':
+				literal = Literal.TEXT;
+				literalText = scanStringLiteral();
+				break;
+			case '-':
+			case '.':
+			case '0': case '1': case '2': case '3': case '4':
+			case '5': case '6': case '7': case '8': case '9':
+				if (!scanNumericalLiteral()) {
+					return false;
+				}
+				literal = Literal.NUMBER;
+				break;
+			case 't':
+				if (!have("true")) {
+					return false;
+				}
+				literal = Literal.BOOLEAN;
+				literalBoolean = true;
+				break;
+			case 'f':
+				if (!have("false")) {
+					return false;
+				}
+				literal = Literal.BOOLEAN;
+				literalBoolean = false;
+				break;
+			case 'n':
+				if (!have("null")) {
 					return false;
 				}
+				literal = Literal.NULL;
+				break;
+			default:
+				return false;
+		}
 
-				if (!have("\t")) {
+		this.literalStart = literalStart;
+		this.literalEnd = i;
+		return true;
+	}
+
+	/// Reports the primitive found by the last successful `scanPrimitive`.
+	void reportPrimitive(KvonHandler handler) {
+		switch (literal) {
+			case TEXT:
+				handler.onText(literalText);
+				break;
+			case NUMBER:
+				handler.onNumberLiteral(chars, literalStart, literalEnd);
+				break;
+			case BOOLEAN:
+				handler.onBoolean(literalBoolean);
+				break;
+			case NULL:
+				handler.onNull();
+				break;
+		}
+	}
+
+	/// Helper for `haveIndentions`
+	private boolean haveIndentionsHelper(Indention indention, int amount) {
+		if (indention instanceof Indention.Tabs) {
+			for (int k = 0; k < amount; ++k) {
+				if (!have('\t')) {
 					return false;
 				}
 			}
@@ -339,12 +473,9 @@ public class LineParser {
 			final Indention.Spaces spaces = (Indention.Spaces) indention;
 			int spacesCount = spaces.count;
 
-			for (int i = 0; i < amount; ++i) {
+			for (int k = 0; k < amount; ++k) {
 				for (int j = 0; j < spacesCount; ++j) {
-					if (see("\t")) {
-						return false;
-					}
-					if (!have(" ")) {
+					if (!have(' ')) {
 						return false;
 					}
 				}
@@ -367,18 +498,50 @@ public class LineParser {
 		}
 	}
 
+	/// Returns the characters `[from, to)` as a string, through the interner
+	/// if there is one.
+	private String newString(int from, int to) {
+		if (interner != null) {
+			return interner.intern(chars, from, to);
+		} else {
+			return new String(chars, from, to - from);
+		}
+	}
 
+	/// Returns true if the characters at `from` are `s`.
+	private boolean seeAt(int from, String s) {
+		int length = s.length();
+		if (end - from < length) {
+			return false;
+		}
+		for (int k = 0; k < length; k++) {
+			if (chars[from + k] != s.charAt(k)) {
+				return false;
+			}
+		}
+		return true;
+	}
 
+	/// Returns true if the next `count` characters are all `c`.
+	private boolean seeRun(char c, int count) {
+		if (end - i < count) {
+			return false;
+		}
+		for (int k = i; k < i + count; k++) {
+			if (chars[k] != c) {
+				return false;
+			}
+		}
+		return true;
+	}
 
+	/// Returns the index of the first non whitespace character at or after
+	/// `from`, or `end` if there is none.
+	private int skipWhitespaces(int from) {
+		return Scan.skipWhitespaces(chars, from, end);
+	}
 
-
-
-
-
-
-	private static String trimStart(String s) {
-		while (s.startsWith(" ") || s.startsWith("\t"))
-			s = s.substring(1);
-		return s;
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
 	}
 }
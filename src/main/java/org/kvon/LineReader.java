@@ -0,0 +1,154 @@
+package org.kvon;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/// Splits the characters of a [Reader] into lines without allocating a
+/// string per line. Lines are separated the same way `Parser.parseString`
+/// has always split them - by a `\n` optionally followed by a `\r`.
+///
+/// The current line is exposed as the range `[start, end)` of `chars`. The
+/// range is only valid until the next call to `next`, since both the read
+/// chunk and the line buffer are reused.
+class LineReader {
+	private static final int CHUNK_SIZE = 8192;
+
+	/// Line buffers which grew beyond this are dropped by `reset`.
+	private static final int MAX_RETAINED_LINE = 1 << 16;
+
+	private Reader reader;
+
+	/// The last chunk read from `reader`.
+	private final char[] chunk;
+	private int chunkPos;
+	private int chunkLen;
+
+	/// Holds lines which span more than one chunk. Grows to the length of
+	/// the longest such line.
+	private char[] lineBuffer;
+
+	/// Set after a `\n` so that a `\r` at the start of the next chunk is
+	/// skipped as well.
+	private boolean skipCarriageReturn;
+	private boolean eof;
+
+	char[] chars;
+	int start;
+	int end;
+
+	LineReader(Reader reader) {
+		this.reader = reader;
+		this.chunk = new char[CHUNK_SIZE];
+		this.chunkPos = 0;
+		this.chunkLen = 0;
+		this.lineBuffer = new char[256];
+		this.skipCarriageReturn = false;
+		this.eof = false;
+	}
+
+	/// Starts over with the characters of `reader`, keeping the buffers.
+	void reset(Reader reader) {
+		this.reader = reader;
+		this.chunkPos = 0;
+		this.chunkLen = 0;
+		this.skipCarriageReturn = false;
+		this.eof = false;
+		if (lineBuffer.length > MAX_RETAINED_LINE) {
+			lineBuffer = new char[256];
+		}
+		setLine(chunk, 0, 0);
+	}
+
+	/// Moves to the next line. Returns false once the input is exhausted.
+	boolean next() throws IOException {
+		int lineLength = 0;
+		boolean buffered = false;
+
+		while (true) {
+			if (chunkPos == chunkLen) {
+				if (!fill()) {
+					// a trailing line without a `\n` is still a line, an empty
+					// remainder after the last `\n` isn't
+					if (buffered && lineLength > 0) {
+						setLine(lineBuffer, 0, lineLength);
+						return true;
+					}
+					return false;
+				}
+			}
+
+			if (skipCarriageReturn) {
+				skipCarriageReturn = false;
+				if (chunk[chunkPos] == '\r') {
+					chunkPos++;
+					continue;
+				}
+			}
+
+			int lineStart = chunkPos;
+			int newline = indexOfNewline(lineStart);
+
+			if (newline >= 0) {
+				chunkPos = newline + 1;
+				skipCarriageReturn = true;
+
+				if (!buffered) {
+					// the whole line is inside the chunk, no need to copy it
+					setLine(chunk, lineStart, newline);
+				} else {
+					lineLength = append(lineLength, lineStart, newline);
+					setLine(lineBuffer, 0, lineLength);
+				}
+				return true;
+			}
+
+			// the line continues in the next chunk
+			lineLength = append(lineLength, lineStart, chunkLen);
+			buffered = true;
+			chunkPos = chunkLen;
+		}
+	}
+
+	private boolean fill() throws IOException {
+		if (eof) {
+			return false;
+		}
+
+		int read;
+		do {
+			read = reader.read(chunk, 0, chunk.length);
+		} while (read == 0);
+
+		if (read < 0) {
+			eof = true;
+			return false;
+		}
+
+		chunkPos = 0;
+		chunkLen = read;
+		return true;
+	}
+
+	private int indexOfNewline(int from) {
+		return Scan.indexOf(chunk, from, chunkLen, '\n');
+	}
+
+	/// Appends `chunk[from, to)` to the line buffer and returns the new
+	/// length of the buffered line.
+	private int append(int lineLength, int from, int to) {
+		int length = to - from;
+		if (lineLength + length > lineBuffer.length) {
+			char[] grown = new char[Math.max(lineBuffer.length * 2, lineLength + length)];
+			System.arraycopy(lineBuffer, 0, grown, 0, lineLength);
+			lineBuffer = grown;
+		}
+		System.arraycopy(chunk, from, lineBuffer, lineLength, length);
+		return lineLength + length;
+	}
+
+	private void setLine(char[] chars, int start, int end) {
+		this.chars = chars;
+		this.start = start;
+		this.end = end;
+	}
+}
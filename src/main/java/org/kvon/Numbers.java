@@ -0,0 +1,147 @@
+package org.kvon;
+
+import java.math.BigDecimal;
+
+/// Converts numerical literals - `-?[0-9]*(\.[0-9]+)?` - to numbers.
+final class Numbers {
+	/// The powers of ten which are exactly representable as doubles.
+	private static final double[] POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+		1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20,
+		1e21, 1e22,
+	};
+
+	/// The largest mantissa whose every smaller integer is an exact double.
+	private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+	private static final BigDecimal LONG_MAX = BigDecimal.valueOf(Long.MAX_VALUE);
+	private static final BigDecimal LONG_MIN = BigDecimal.valueOf(Long.MIN_VALUE);
+
+	private Numbers() { }
+
+	/// Converts the literal `[start, end)` of `chars`.
+	static double parseDouble(char[] chars, int start, int end) {
+		int i = start;
+		boolean negative = i < end && chars[i] == '-';
+		if (negative)
+			i++;
+
+		long mantissa = 0;
+		int digits = 0;
+		int scale = -1;
+		for (; i < end; i++) {
+			char c = chars[i];
+			if (c == '.') {
+				scale = 0;
+				continue;
+			}
+			mantissa = mantissa * 10 + (c - '0');
+			if (mantissa != 0)
+				digits++;
+			if (scale >= 0)
+				scale++;
+		}
+
+		if (isExact(mantissa, digits, scale)) {
+			return toDouble(mantissa, scale, negative);
+		} else {
+			return Double.parseDouble(new String(chars, start, end - start));
+		}
+	}
+
+	/// Converts the literal `s`.
+	static double parseDouble(String s) {
+		int i = 0;
+		int end = s.length();
+		boolean negative = i < end && s.charAt(i) == '-';
+		if (negative)
+			i++;
+
+		long mantissa = 0;
+		int digits = 0;
+		int scale = -1;
+		for (; i < end; i++) {
+			char c = s.charAt(i);
+			if (c == '.') {
+				scale = 0;
+				continue;
+			}
+			mantissa = mantissa * 10 + (c - '0');
+			if (mantissa != 0)
+				digits++;
+			if (scale >= 0)
+				scale++;
+		}
+
+		if (isExact(mantissa, digits, scale)) {
+			return toDouble(mantissa, scale, negative);
+		} else {
+			return Double.parseDouble(s);
+		}
+	}
+
+	/// Converts the literal `s`, truncating its fraction. Numbers beyond the
+	/// range of a long saturate to `Long.MIN_VALUE` or `Long.MAX_VALUE`, as
+	/// a double does when it's cast.
+	static long parseLong(String s) {
+		int end = s.indexOf('.');
+		if (end < 0)
+			end = s.length();
+
+		int i = 0;
+		boolean negative = i < end && s.charAt(i) == '-';
+		if (negative)
+			i++;
+
+		// 18 digits always fit into a long
+		if (end - i > 18) {
+			return saturate(new BigDecimal(s));
+		}
+
+		long value = 0;
+		for (; i < end; i++)
+			value = value * 10 + (s.charAt(i) - '0');
+		return negative ? -value : value;
+	}
+
+	/// Converts the literal `[start, end)` of `chars` like `parseLong`.
+	static long parseLong(char[] chars, int start, int end) {
+		int i = start;
+		boolean negative = i < end && chars[i] == '-';
+		if (negative)
+			i++;
+
+		int dot = i;
+		while (dot < end && chars[dot] != '.')
+			dot++;
+
+		// 18 digits always fit into a long
+		if (dot - i > 18) {
+			return saturate(new BigDecimal(chars, start, end - start));
+		}
+
+		long value = 0;
+		for (; i < dot; i++)
+			value = value * 10 + (chars[i] - '0');
+		return negative ? -value : value;
+	}
+
+	private static long saturate(BigDecimal value) {
+		if (value.compareTo(LONG_MAX) > 0)
+			return Long.MAX_VALUE;
+		if (value.compareTo(LONG_MIN) < 0)
+			return Long.MIN_VALUE;
+		return value.longValue();
+	}
+
+	/// Returns true if the mantissa and the scale are exact doubles, in which
+	/// case a single division is correctly rounded.
+	private static boolean isExact(long mantissa, int digits, int scale) {
+		return digits <= 18 && mantissa <= MAX_EXACT_MANTISSA && scale < POWERS_OF_TEN.length;
+	}
+
+	private static double toDouble(long mantissa, int scale, boolean negative) {
+		double value = scale > 0 ? mantissa / POWERS_OF_TEN[scale] : mantissa;
+		return negative ? -value : value;
+	}
+}
@@ -0,0 +1,420 @@
+package org.kvon;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/// Parses large documents on several threads.
+///
+/// A line with content at indent 0 always closes every open context and adds
+/// a key to the root object, so a document can be cut right before such
+/// lines into chunks which parse independently. The root objects of the
+/// chunks are then merged in order, which gives the same tree and the same
+/// errors as `Parser.parse`.
+///
+/// The indention is detected by the first indented line of the whole
+/// document. So leading chunks are parsed one after another until it is
+/// known, and the remaining chunks are parsed in parallel with it.
+///
+/// The chunks are counted separately for the default metrics of [Parser],
+/// which get a single document once they are merged.
+public final class ParallelParser {
+	/// Chunks are never cut smaller than this, in chars or bytes.
+	private static final int MIN_CHUNK_SIZE = 1 << 20;
+	/// Chunks aim to be no larger than this, in chars or bytes, to bound the
+	/// memory the chunks being parsed hold on to.
+	private static final int MAX_CHUNK_SIZE = 64 << 20;
+	/// How many chunks each thread of the pool gets, to even out chunks that
+	/// parse slower than others.
+	private static final int CHUNKS_PER_THREAD = 4;
+
+	private ParallelParser() {
+	}
+
+	/// A document which can be cut into chunks.
+	private interface Source {
+		long length();
+
+		/// Returns the start of the first line with content at indent 0
+		/// which starts at or after `from`, or `length()` if there is none.
+		long findBoundary(long from) throws IOException;
+
+		/// Feeds the lines of `[from, to)` to `parser`.
+		void parse(Parser parser, long from, long to) throws IOException, KvonException;
+	}
+
+	/// Returns true if a line starting with `c` has content at indent 0.
+	private static boolean startsRootKey(int c) {
+		return c != ' ' && c != '\t' && c != '#' && c != '\n' && c != '\r';
+	}
+
+	private static class CharSource implements Source {
+		private final char[] chars;
+
+		CharSource(char[] chars) {
+			this.chars = chars;
+		}
+
+		@Override
+		public long length() {
+			return chars.length;
+		}
+
+		@Override
+		public long findBoundary(long from) {
+			for (int i = (int) from; i < chars.length; i++) {
+				if (chars[i] != '\n')
+					continue;
+
+				// lines are separated by `\n\r?`
+				int start = i + 1;
+				if (start < chars.length && chars[start] == '\r')
+					start++;
+				if (start < chars.length && startsRootKey(chars[start]))
+					return start;
+			}
+			return chars.length;
+		}
+
+		@Override
+		public void parse(Parser parser, long from, long to) throws KvonException {
+			int start = (int) from;
+			int end = (int) to;
+			while (start < end) {
+				int newline = start;
+				while (newline < end && chars[newline] != '\n')
+					newline++;
+
+				parser.nextLine(chars, start, newline);
+				if (newline == end)
+					return;
+
+				start = newline + 1;
+				if (start < end && chars[start] == '\r')
+					start++;
+			}
+		}
+	}
+
+	/// A UTF-8 encoded file. Chunks are cut between bytes, which is safe since
+	/// a `\n` byte is never part of a longer sequence. They are read with
+	/// positional reads, so all the chunks share one channel.
+	private static class FileSource implements Source {
+		private static final int BUFFER_SIZE = 1 << 16;
+
+		private final FileChannel channel;
+		private final long length;
+
+		FileSource(FileChannel channel) throws IOException {
+			this.channel = channel;
+			this.length = channel.size();
+		}
+
+		@Override
+		public long length() {
+			return length;
+		}
+
+		@Override
+		public long findBoundary(long from) throws IOException {
+			ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			// the state of the previous line break, which may be in the
+			// previous buffer: 0 none, 1 after `\n`, 2 after `\n\r`
+			int afterNewline = 0;
+
+			for (long position = from; position < length; ) {
+				buffer.clear();
+				int read = channel.read(buffer, position);
+				if (read <= 0)
+					break;
+
+				for (int i = 0; i < read; i++) {
+					if (afterNewline == 0) {
+						// nothing but a line break changes the state
+						i = Scan.indexOf(buffer, i, read, (byte) '\n');
+						if (i < 0)
+							break;
+					}
+
+					byte b = buffer.get(i);
+					if (afterNewline == 1 && b == '\r') {
+						afterNewline = 2;
+						continue;
+					}
+					if (afterNewline != 0 && startsRootKey(b))
+						return position + i;
+					afterNewline = b == '\n' ? 1 : 0;
+				}
+				position += read;
+			}
+			return length;
+		}
+
+		@Override
+		public void parse(Parser parser, long from, long to) throws IOException, KvonException {
+			Reader reader = new InputStreamReader(new RangeInputStream(channel, from, to), StandardCharsets.UTF_8);
+			LineReader lines = new LineReader(reader);
+			while (lines.next()) {
+				parser.nextLine(lines.chars, lines.start, lines.end);
+			}
+		}
+	}
+
+	/// Reads the range `[position, end)` of a channel.
+	private static class RangeInputStream extends InputStream {
+		private final FileChannel channel;
+		private long position;
+		private final long end;
+
+		RangeInputStream(FileChannel channel, long position, long end) {
+			this.channel = channel;
+			this.position = position;
+			this.end = end;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (position >= end)
+				return -1;
+
+			len = (int) Math.min(len, end - position);
+			int read = channel.read(ByteBuffer.wrap(b, off, len), position);
+			if (read < 0)
+				return -1;
+			position += read;
+			return read;
+		}
+	}
+
+	/// The result of parsing one chunk.
+	private static class Chunk {
+		final Value root;
+		/// The number of lines of the chunk.
+		final int lines;
+		/// The statistics of the chunk, null without metrics.
+		final KvonMetrics.Document document;
+		/// The error the chunk failed with, if any. Kept here rather than
+		/// thrown, since the pool would wrap it into a `RuntimeException`.
+		final Exception failure;
+
+		Chunk(Parser parser, int lines) {
+			this.root = parser.finish();
+			this.lines = lines;
+			this.document = parser.getMetrics() == null ? null : ((Collector) parser.getMetrics()).document;
+			this.failure = null;
+		}
+
+		Chunk(Exception failure) {
+			this.root = null;
+			this.lines = 0;
+			this.document = null;
+			this.failure = failure;
+		}
+	}
+
+	/// Keeps the statistics of a chunk.
+	private static class Collector implements KvonMetrics {
+		Document document;
+
+		@Override
+		public void onParse(Document document) {
+			this.document = document;
+		}
+	}
+
+	/// Parses a string on the common pool.
+	public static Value parse(String s) throws KvonException {
+		return parse(s, ForkJoinPool.commonPool(), null);
+	}
+
+	/// Parses a string on `pool`. Repeated keys and short text values share
+	/// the strings of `interner`, unless it's null.
+	public static Value parse(String s, ForkJoinPool pool, StringInterner interner) throws KvonException {
+		return parse(s, pool, interner, chunkSize(s.length(), pool));
+	}
+
+	/// Parses a string cut into chunks of about `chunkSize` chars.
+	static Value parse(String s, ForkJoinPool pool, StringInterner interner, long chunkSize) throws KvonException {
+		try {
+			return parse(new CharSource(s.toCharArray()), pool, interner, chunkSize);
+		} catch (IOException e) {
+			// reading from a string never fails
+			throw new RuntimeException(e);
+		}
+	}
+
+	/// Parses the UTF-8 encoded file at `path` on the common pool.
+	public static Value parse(Path path) throws IOException, KvonException {
+		return parse(path, ForkJoinPool.commonPool(), null);
+	}
+
+	/// Parses the UTF-8 encoded file at `path` on `pool`. Repeated keys and
+	/// short text values share the strings of `interner`, unless it's null.
+	public static Value parse(Path path, ForkJoinPool pool, StringInterner interner) throws IOException, KvonException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			FileSource source = new FileSource(channel);
+			return parse(source, pool, interner, chunkSize(source.length(), pool));
+		}
+	}
+
+	private static long chunkSize(long length, ForkJoinPool pool) {
+		long size = length / ((long) pool.getParallelism() * CHUNKS_PER_THREAD);
+		return Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, size));
+	}
+
+	private static Value parse(Source source, ForkJoinPool pool, StringInterner interner, long chunkSize) throws IOException, KvonException {
+		KvonMetrics metrics = Parser.getDefaultMetrics();
+		Object token = metrics == null ? null : metrics.startParse();
+		long startNanos = System.nanoTime();
+
+		// cut the document - only the few lines after each cut are read
+		ArrayList<Long> bounds = new ArrayList<>();
+		bounds.add(0L);
+		long length = source.length();
+		for (long from = chunkSize; from < length; ) {
+			long bound = source.findBoundary(from);
+			if (bound >= length)
+				break;
+			bounds.add(bound);
+			from = bound + chunkSize;
+		}
+		bounds.add(length);
+		int count = bounds.size() - 1;
+
+		// parse the leading chunks until the indention is known
+		Chunk[] chunks = new Chunk[count];
+		Indention indention = null;
+		int lineNumber = 0;
+		int next = 0;
+		while (next < count && indention == null) {
+			Parser parser = newParser(interner, null, lineNumber, metrics);
+			source.parse(parser, bounds.get(next), bounds.get(next + 1));
+			chunks[next] = new Chunk(parser, parser.lineNumber - lineNumber);
+			lineNumber = parser.lineNumber;
+			indention = parser.indention;
+			next++;
+		}
+
+		// parse the rest in parallel. Their line numbers are relative to the
+		// chunk until the lines of the chunks before them are known.
+		ArrayList<ForkJoinTask<Chunk>> tasks = new ArrayList<>();
+		for (int i = next; i < count; i++) {
+			long from = bounds.get(i);
+			long to = bounds.get(i + 1);
+			Indention detected = indention;
+			tasks.add(pool.submit(() -> {
+				Parser parser = newParser(interner, detected, 0, metrics);
+				try {
+					source.parse(parser, from, to);
+				} catch (IOException | KvonException e) {
+					return new Chunk(e);
+				}
+				return new Chunk(parser, parser.lineNumber);
+			}));
+		}
+
+		for (int i = next; i < count; i++) {
+			ForkJoinTask<Chunk> task = tasks.get(i - next);
+			Chunk chunk;
+			try {
+				chunk = task.join();
+			} catch (RuntimeException | Error e) {
+				cancel(tasks);
+				throw e;
+			}
+
+			if (chunk.failure != null) {
+				cancel(tasks);
+				if (chunk.failure instanceof KvonException) {
+					KvonException e = (KvonException) chunk.failure;
+					throw new KvonException(e.lineNumber + lineNumber, e.columnNumber, e.line, e.type);
+				}
+				throw (IOException) chunk.failure;
+			}
+
+			chunks[i] = chunk;
+			lineNumber += chunk.lines;
+		}
+
+		// merge the root objects in document order, so a repeated root key
+		// keeps its first position and its last value
+		Value.FlatObj root = (Value.FlatObj) chunks[0].root;
+		for (int i = 1; i < count; i++) {
+			chunks[i].root.forEachField(root::put);
+		}
+		root.trim();
+
+		if (metrics != null) {
+			metrics.onParse(merge(chunks, System.nanoTime() - startNanos, token));
+		}
+		return root;
+	}
+
+	/// Returns the statistics of the whole document, as if it had been
+	/// parsed in one piece.
+	private static KvonMetrics.Document merge(Chunk[] chunks, long elapsedNanos, Object token) {
+		int lines = 0;
+		long characters = 0;
+		long nodes = 0;
+		int maxDepth = 0;
+		long multiLineCharacters = 0;
+		long hash = KvonMetrics.HASH_OFFSET;
+		for (Chunk chunk: chunks) {
+			KvonMetrics.Document d = chunk.document;
+			lines += d.lines;
+			characters += d.characters;
+			nodes += d.nodes;
+			maxDepth = Math.max(maxDepth, d.maxDepth);
+			multiLineCharacters += d.multiLineCharacters;
+			// every line was hashed with a `\n`
+			hash = combineHashes(hash, d.contentHash, d.characters + d.lines);
+		}
+		// the root objects are merged into one
+		nodes -= chunks.length - 1;
+		return new KvonMetrics.Document(lines, characters, nodes, maxDepth, multiLineCharacters, elapsedNanos, hash, token);
+	}
+
+	/// Returns the content hash of a text hashed to `first` followed by
+	/// `length` characters hashed to `second`.
+	private static long combineHashes(long first, long second, long length) {
+		// HASH_PRIME^length, by squaring
+		long power = 1;
+		long base = KvonMetrics.HASH_PRIME;
+		for (long n = length; n > 0; n >>>= 1) {
+			if ((n & 1) != 0)
+				power *= base;
+			base *= base;
+		}
+		return (first - KvonMetrics.HASH_OFFSET) * power + second;
+	}
+
+	private static Parser newParser(StringInterner interner, Indention indention, int lineNumber, KvonMetrics metrics) {
+		Parser parser = new Parser();
+		parser.setMetrics(metrics == null ? null : new Collector());
+		parser.setInterner(interner);
+		parser.indention = indention;
+		parser.lineNumber = lineNumber;
+		return parser;
+	}
+
+	private static void cancel(ArrayList<ForkJoinTask<Chunk>> tasks) {
+		for (ForkJoinTask<Chunk> task: tasks)
+			task.cancel(false);
+	}
+}
@@ -0,0 +1,184 @@
+package org.kvon;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/// A cache of parsed documents, for parsing the same documents over and
+/// over, like templates or configurations read by many workers.
+///
+/// ```
+/// ParseCache cache = new ParseCache(64 << 20);
+/// Value template = cache.parse(text);
+/// ```
+///
+/// Documents are looked up by a hash of their content and their length, and
+/// a hit is compared with the cached source, so two documents are never
+/// mixed up. The cache is bounded by an estimate of the bytes its entries
+/// retain, the source included, and evicts the least recently used entries
+/// beyond it. The trees are frozen, see `Value.freeze`, so the callers share
+/// them safely. Documents which fail to parse aren't cached.
+///
+/// The cache is thread-safe. Documents are parsed outside of its lock, so a
+/// document requested by several threads at once may be parsed more than
+/// once.
+public final class ParseCache {
+	/// The estimated sizes of the objects, for a 64 bit JVM with compressed
+	/// references.
+	private static final int HEADER_BYTES = 16;
+	private static final int REFERENCE_BYTES = 4;
+	private static final int STRING_BYTES = 24 + HEADER_BYTES;
+
+	private static final class Key {
+		final long hash;
+		final int length;
+
+		Key(long hash, int length) {
+			this.hash = hash;
+			this.length = length;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Key && ((Key) o).hash == hash && ((Key) o).length == length;
+		}
+
+		@Override
+		public int hashCode() {
+			return (int) (hash ^ (hash >>> 32));
+		}
+	}
+
+	private static final class Entry {
+		final String source;
+		final Value value;
+		final long bytes;
+
+		Entry(String source, Value value, long bytes) {
+			this.source = source;
+			this.value = value;
+			this.bytes = bytes;
+		}
+	}
+
+	private final long maxBytes;
+	/// The entries, from the least to the most recently used.
+	private final LinkedHashMap<Key, Entry> entries;
+	private long bytes;
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	/// Creates a cache which retains up to about `maxBytes` bytes.
+	public ParseCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+		this.entries = new LinkedHashMap<>(16, 0.75f, true);
+	}
+
+	/// Returns the parsed document `s`, from the cache if it's there. The
+	/// tree is frozen.
+	public Value parse(String s) throws KvonException {
+		Key key = new Key(hash(s), s.length());
+		synchronized (this) {
+			Entry entry = entries.get(key);
+			if (entry != null && entry.source.equals(s)) {
+				hits++;
+				return entry.value;
+			}
+			misses++;
+		}
+
+		Value value = Value.freeze(Parser.parseString(s));
+		long size = STRING_BYTES + 2L * s.length() + retainedBytes(value);
+		if (size > maxBytes) {
+			return value;
+		}
+
+		synchronized (this) {
+			Entry previous = entries.put(key, new Entry(s, value, size));
+			if (previous != null) {
+				bytes -= previous.bytes;
+			}
+			bytes += size;
+
+			Iterator<Map.Entry<Key, Entry>> eldest = entries.entrySet().iterator();
+			while (bytes > maxBytes) {
+				bytes -= eldest.next().getValue().bytes;
+				eldest.remove();
+				evictions++;
+			}
+		}
+		return value;
+	}
+
+	public synchronized long getHitCount() {
+		return hits;
+	}
+
+	public synchronized long getMissCount() {
+		return misses;
+	}
+
+	public synchronized long getEvictionCount() {
+		return evictions;
+	}
+
+	/// Returns the number of cached documents.
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/// Returns the estimated bytes retained by the cached documents.
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	/// Drops the cached documents. The counters are kept.
+	public synchronized void clear() {
+		entries.clear();
+		bytes = 0;
+	}
+
+	private static long hash(String s) {
+		long h = s.length();
+		for (int i = 0; i < s.length(); i++)
+			h = 31 * h + s.charAt(i);
+
+		// spread the bits, since the map only looks at the low ones
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	/// Estimates the bytes retained by the tree `v`. The shared booleans and
+	/// nulls don't count, while keys count for every object, even if they are
+	/// interned.
+	private static long retainedBytes(Value v) {
+		if (v.isObject()) {
+			int n = v.size();
+			long[] size = {HEADER_BYTES + 4 * REFERENCE_BYTES + 2 * (HEADER_BYTES + (long) n * REFERENCE_BYTES)};
+			if (n > 8) {
+				// the index of a larger object
+				size[0] += HEADER_BYTES + 16L * n;
+			}
+			v.forEachField((key, value) -> size[0] += STRING_BYTES + 2L * key.length() + retainedBytes(value));
+			return size[0];
+		}
+
+		if (v.isArray()) {
+			long size = 2 * HEADER_BYTES + (long) v.size() * REFERENCE_BYTES;
+			for (int i = 0; i < v.size(); i++)
+				size += retainedBytes(v.get(i));
+			return size;
+		}
+
+		if (v instanceof Value.TextValue) {
+			return HEADER_BYTES + STRING_BYTES + 2L * v.asText().length();
+		}
+		if (v instanceof Value.NumberValue) {
+			return 2 * HEADER_BYTES + STRING_BYTES + 2L * ((Value.NumberValue) v).source.length();
+		}
+		return 0;
+	}
+}
@@ -1,24 +1,329 @@
 package org.kvon;
 
-import jdk.nashorn.internal.runtime.ParserException;
-import org.kvon.context.MultiLineStringContext;
-import org.kvon.context.ParsingContext;
-
-import javax.naming.OperationNotSupportedException;
-import java.util.ArrayList;
-import java.util.Optional;
-import java.util.Stack;
-
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/// Parses KVON line by line. The parser only tracks the structure of the
+/// document - the contexts that are open and their indents - and reports it
+/// to a [KvonHandler]. By default the handler builds a [Value] tree, see
+/// `finish`.
 public class Parser {
 	int lineNumber;
 	Indention indention;
-	Stack<ParsingContext> contextStack;
+	final ContextStack contextStack;
+	/// The lines of the multi-line string being read, joined by `\n`, and
+	/// their count.
+	private final StringBuilder multiLineText;
+	private int multiLineCount;
+	/// Parses every line in turn.
+	private final LineParser lineParser;
+	/// The handler the document is reported to, which counts the values if
+	/// there are metrics.
+	KvonHandler handler;
+	private final KvonHandler documentHandler;
+	/// Reuses the strings of repeated keys and short texts. Null if disabled.
+	StringInterner interner;
+	/// The handler, if the tree is built by the parser itself.
+	private final ValueBuilder builder;
+
+	/// The paths to report, or null to report the whole document. See
+	/// `select`.
+	private KeyPaths paths;
+	/// The path nodes of the objects being reported outside the selected
+	/// values, by their indent.
+	private KeyPaths[] pathNodes;
+	/// The indent of the contents of the selected value being reported, or
+	/// `Integer.MAX_VALUE` if there is none.
+	private int selectedIndent;
+	/// The leading whitespaces of the key whose lines are being skipped, or
+	/// -1 if no lines are being skipped.
+	private int skipWidth;
+	/// Collects the errors instead of throwing them, or null. See
+	/// `collectErrors`.
+	private Diagnostics diagnostics;
+
+	/// The metrics of new parsers. See `setDefaultMetrics`.
+	private static volatile KvonMetrics defaultMetrics;
+	/// Receives the statistics of the documents, or null. See `setMetrics`.
+	private KvonMetrics metrics;
+	/// The values counted for the metrics, null without metrics.
+	private Counting counting;
+	private int linesCounted;
+	private long characters;
+	private long contentHash;
+	private long startNanos;
+	/// Whether the metrics have been told that the document started, which
+	/// is done on its first line, so parsers which never parse a document
+	/// never start one.
+	private boolean metricsStarted;
+	/// What the metrics returned when the document started.
+	private Object metricsToken;
+
+	/// Counts the values of a document while reporting them, for the
+	/// metrics.
+	private static final class Counting implements KvonHandler {
+		private final KvonHandler handler;
+		long nodes;
+		int depth;
+		int maxDepth;
+		long multiLineCharacters;
+
+		Counting(KvonHandler handler) {
+			this.handler = handler;
+		}
+
+		void clear() {
+			nodes = 0;
+			depth = 0;
+			maxDepth = 0;
+			multiLineCharacters = 0;
+		}
+
+		private void open() {
+			nodes++;
+			depth++;
+			if (depth > maxDepth)
+				maxDepth = depth;
+		}
+
+		@Override
+		public void startObject() {
+			open();
+			handler.startObject();
+		}
+
+		@Override
+		public void endObject() {
+			depth--;
+			handler.endObject();
+		}
+
+		@Override
+		public void startArray() {
+			open();
+			handler.startArray();
+		}
+
+		@Override
+		public void endArray() {
+			depth--;
+			handler.endArray();
+		}
+
+		@Override
+		public void onKey(CharSequence key) {
+			handler.onKey(key);
+		}
+
+		@Override
+		public void onText(CharSequence text) {
+			nodes++;
+			handler.onText(text);
+		}
+
+		@Override
+		public void onMultiLineText(CharSequence text) {
+			nodes++;
+			multiLineCharacters += text.length();
+			handler.onMultiLineText(text);
+		}
+
+		@Override
+		public void onNumber(double number) {
+			nodes++;
+			handler.onNumber(number);
+		}
+
+		@Override
+		public void onNumberLiteral(char[] chars, int start, int end) {
+			nodes++;
+			handler.onNumberLiteral(chars, start, end);
+		}
+
+		@Override
+		public void onBoolean(boolean b) {
+			nodes++;
+			handler.onBoolean(b);
+		}
+
+		@Override
+		public void onNull() {
+			nodes++;
+			handler.onNull();
+		}
+	}
+
+	/// Receives nothing, for validating.
+	private static final class Ignore implements KvonHandler {
+		@Override
+		public void startObject() { }
+
+		@Override
+		public void endObject() { }
+
+		@Override
+		public void startArray() { }
+
+		@Override
+		public void endArray() { }
+
+		@Override
+		public void onKey(CharSequence key) { }
+
+		@Override
+		public void onText(CharSequence text) { }
 
+		@Override
+		public void onNumber(double number) { }
+
+		@Override
+		public void onNumberLiteral(char[] chars, int start, int end) { }
+
+		@Override
+		public void onBoolean(boolean b) { }
+
+		@Override
+		public void onNull() { }
+	}
+
+	/// Creates a parser which builds a [Value] tree, returned by `finish`.
 	public Parser() {
-		contextStack = new Stack<>();
-		contextStack.push(ParsingContext.objectContext(0, ""));
+		this(new ValueBuilder());
+	}
+
+	/// Creates a parser which reports the document to `handler`. Once all
+	/// lines have been fed, call `endDocument`.
+	public Parser(KvonHandler handler) {
+		this.handler = handler;
+		this.documentHandler = handler;
+		this.builder = handler instanceof ValueBuilder ? (ValueBuilder) handler : null;
+		contextStack = new ContextStack();
+		multiLineText = new StringBuilder();
+		lineParser = new LineParser(0, new char[0], 0, 0);
+		start();
+		setMetrics(defaultMetrics);
+	}
+
+	/// Prepares the parser for another document, as if it had just been
+	/// created. The handler and the interner are kept, and so is the tree
+	/// builder, which drops whatever it had built of an unfinished document.
+	/// The parser's buffers are kept as well, so a parser reused for many
+	/// small documents allocates next to nothing besides their trees.
+	public void reset() {
+		if (builder != null) {
+			builder.reset();
+		}
+		contextStack.clear();
+		start();
+	}
+
+	private void start() {
+		if (counting != null) {
+			startMetrics();
+		}
+		contextStack.push(ContextStack.OBJECT, 0);
+		multiLineText.setLength(0);
+		multiLineCount = 0;
+		handler.startObject();
 		lineNumber = 0;
 		indention = null;
+		selectedIndent = Integer.MAX_VALUE;
+		skipWidth = -1;
+	}
+
+	/// Makes the parser report only the values at `paths`, such as
+	/// `database.pool.size`, whose keys are separated by dots. The objects on
+	/// the way to them are reported as well, so the values keep their place
+	/// in the tree. Only object keys can be selected - an array on the way
+	/// to a path is skipped, one at the end of it is reported as a whole.
+	///
+	/// Everything else is skipped by the indention of its lines alone: once
+	/// a key is known not to be on any path, the lines indented deeper than
+	/// it are dropped before they are parsed at all. As a consequence, the
+	/// skipped lines are not checked for errors.
+	///
+	/// Must be called before the first line.
+	public void select(String... paths) {
+		this.paths = KeyPaths.of(paths);
+		this.pathNodes = new KeyPaths[this.paths.depth + 1];
+		this.pathNodes[0] = this.paths;
+	}
+
+	/// Makes the parser add errors to `diagnostics` instead of throwing them.
+	/// After an error, the lines indented deeper than the line of the error
+	/// are skipped, and parsing goes on with the next line indented as deep
+	/// or less. The errors don't capture stack traces.
+	///
+	/// The handler may have been told part of the line of an error, so the
+	/// document it receives is only meaningful if there were no errors.
+	public void collectErrors(Diagnostics diagnostics) {
+		this.diagnostics = diagnostics;
+		lineParser.stackTraces = diagnostics == null;
+	}
+
+	/// Reports the statistics of the documents to `metrics`, or stops if it's
+	/// null. Must be called before the first line. Parsers get the metrics
+	/// set by `setDefaultMetrics` when they are created, which aren't told
+	/// about a document until its first line.
+	public void setMetrics(KvonMetrics metrics) {
+		this.metrics = metrics;
+		if (metrics == null) {
+			counting = null;
+			handler = documentHandler;
+			return;
+		}
+
+		counting = new Counting(documentHandler);
+		handler = counting;
+		startMetrics();
+		// the root object has been reported already
+		counting.open();
+	}
+
+	public KvonMetrics getMetrics() {
+		return metrics;
+	}
+
+	/// Sets the metrics of the parsers created from now on, including the
+	/// ones of the static `parse` methods. Pass null to stop.
+	public static void setDefaultMetrics(KvonMetrics metrics) {
+		defaultMetrics = metrics;
+	}
+
+	public static KvonMetrics getDefaultMetrics() {
+		return defaultMetrics;
+	}
+
+	private void startMetrics() {
+		counting.clear();
+		linesCounted = 0;
+		characters = 0;
+		contentHash = KvonMetrics.HASH_OFFSET;
+		metricsStarted = false;
+		metricsToken = null;
+	}
+
+	/// Tells the metrics that the document starts.
+	private void beginMetrics() {
+		metricsStarted = true;
+		metricsToken = metrics.startParse();
+		startNanos = System.nanoTime();
+	}
+
+	private void countLine(char[] chars, int start, int end) {
+		linesCounted++;
+		characters += end - start;
+		long h = contentHash;
+		for (int i = start; i < end; i++)
+			h = h * KvonMetrics.HASH_PRIME + chars[i];
+		contentHash = h * KvonMetrics.HASH_PRIME + '\n';
 	}
 
 	/// Calculates the indent and auto detects it if it has not been set yet.
@@ -48,7 +353,7 @@ public class Parser {
 					int spaces = ((Indention.Spaces) indention).count;
 
 					if (spacesCount > 0) {
-						if (spacesCount % spaces == 0) {
+						if (spacesCount % spaces != 0) {
 							throw lineParser.generateError(new KvonException.SpacesNotMultipleOfIndent());
 						} else {
 							return spacesCount / spaces;
@@ -69,6 +374,7 @@ public class Parser {
 				// set indention to spaces
 				if (spacesCount > 0) {
 					indention = Indention.spaces(spacesCount);
+					return 1;
 				}
 
 				// initial indention of more than one tabs is not allowed
@@ -86,26 +392,27 @@ public class Parser {
 		}
 	}
 
-	/// Removes the top context from the stack and merges it to the context
-	/// below it.
+	/// Removes the top context from the stack and reports its end.
 	void popStack() {
 		// remove the top context
-		ParsingContext context = contextStack.pop();
+		byte kind = contextStack.pop();
 
-		// add it to the context underneath
-		try {
-			contextStack
-				.lastElement()
-				.pushV(context.toValue());
-		} catch (OperationNotSupportedException e) {
-			throw new RuntimeException(e);
+		if (kind == ContextStack.OBJECT) {
+			handler.endObject();
+		} else if (kind == ContextStack.ARRAY) {
+			handler.endArray();
+		} else {
+			// a multi-line string is reported once all of its lines are known
+			handler.onMultiLineText(multiLineText);
+			multiLineText.setLength(0);
+			multiLineCount = 0;
 		}
 	}
 
 	// Collapses context from the top of the stack until the indent of the top
 	// context doesn't exceed the given indent.
 	void collapseContextToIndent(int indent) {
-		while (contextStack.lastElement().getIndent() > indent)
+		while (contextStack.topIndent() > indent)
 			popStack();
 	}
 
@@ -115,12 +422,103 @@ public class Parser {
 		collapseContextToIndent(0);
 	}
 
+	/// Collapses all the contexts, including the root, and reports the end of
+	/// the document.
+	public void endDocument() {
+		collapseContext();
+		handler.endObject();
+
+		if (metrics != null) {
+			if (!metricsStarted) {
+				// a document without lines
+				beginMetrics();
+			}
+			metricsStarted = false;
+			metrics.onParse(new KvonMetrics.Document(
+				linesCounted,
+				characters,
+				counting.nodes,
+				counting.maxDepth,
+				counting.multiLineCharacters,
+				System.nanoTime() - startNanos,
+				contentHash,
+				metricsToken
+			));
+		}
+	}
+
+	/// Reports the values of an inlined array whose `[` has been consumed.
+	void processInlineArray(LineParser lineParser) throws KvonException {
+		handler.startArray();
+		while (true) {
+			lineParser.consumeWhitespaces();
+
+			// end of array
+			if (lineParser.have(']')) {
+				break;
+			}
+
+			// new sub array
+			if (lineParser.have('[')) {
+				processInlineArray(lineParser);
+				continue;
+			}
+
+			// next value
+			if (lineParser.scanPrimitive()) {
+				lineParser.reportPrimitive(handler);
+				continue;
+			}
+
+			throw lineParser.generateError(new KvonException.UnexpectedCharacter());
+		}
+		handler.endArray();
+	}
+
 	/// Processes a line whose indention has been consumed in the context of an
 	/// object.
 	void processPostIndentObject(LineParser lineParser, int indent) throws KvonException {
-		// key
+		processPostKeyObject(lineParser, lineParser.parseKey(), indent);
+	}
+
+	/// Processes a line of an object on the way to the selected paths. Only
+	/// keys on a path are reported, and only objects are opened on the way.
+	/// The lines of any other key are skipped.
+	void processUnselectedObject(LineParser lineParser, int indent, int width) throws KvonException {
 		String key = lineParser.parseKey();
+		KeyPaths node = pathNodes[indent].child(key);
+		if (node == null) {
+			skipWidth = width;
+			return;
+		}
+
+		if (node.selected) {
+			processPostKeyObject(lineParser, key, indent);
+			if (contextStack.topIndent() > indent) {
+				// the value spans the following lines
+				selectedIndent = indent + 1;
+			}
+			return;
+		}
+
+		lineParser.consumeWhitespaces();
+		if (lineParser.have(':')) {
+			lineParser.consumeWhitespaces();
+			if (lineParser.seeEndOrComment()) {
+				handler.onKey(key);
+				handler.startObject();
+				contextStack.push(ContextStack.OBJECT, indent + 1);
+				pathNodes[indent + 1] = node;
+				return;
+			}
+		}
+
+		// not an object, so the path can't go on
+		skipWidth = width;
+	}
 
+	/// Processes the rest of an object's line once its key has been parsed.
+	private void processPostKeyObject(LineParser lineParser, String key, int indent) throws KvonException {
 		// whitespace
 		lineParser.consumeWhitespaces();
 
@@ -130,57 +528,37 @@ public class Parser {
 				throw lineParser.generateError(new KvonException.UnexpectedCharacter());
 			}
 
-			// set the key to the current context
-			ParsingContext last = contextStack.lastElement();
-			try {
-				last.setPendingKey(key);
-			} catch (OperationNotSupportedException e) {
-				throw new RuntimeException(e);
-			}
-
 			// push the array context
-			contextStack.push(ParsingContext.arrayContext(indent + 1));
+			handler.onKey(key);
+			handler.startArray();
+			contextStack.push(ContextStack.ARRAY, indent + 1);
 			return;
 		}
 
 		// object or value
-		if (lineParser.have(":")) {
+		if (lineParser.have(':')) {
 			lineParser.consumeWhitespaces();
 
-			ParsingContext last = contextStack.lastElement();
-			try {
-				last.setPendingKey(key);
-			} catch (OperationNotSupportedException e) {
-				throw new RuntimeException(e);
-			}
-
 			// object - push a new context
 			if (lineParser.seeEndOrComment()) {
-				contextStack
-					.push(ParsingContext.objectContext(indent + 1, ""));
+				handler.onKey(key);
+				handler.startObject();
+				contextStack.push(ContextStack.OBJECT, indent + 1);
 				return;
 			}
 
-			Optional<Value> value;
-			Optional<PrimitiveValue> primitive;
-
-			if ((value = lineParser.parseInlineArray()).isPresent()) {
+			if (lineParser.have('[')) {
 				// inlined array
-				try {
-					last.pushV(value.get());
-				} catch (OperationNotSupportedException e) {
-					throw new RuntimeException(e);
-				}
-			} else if ( (primitive = lineParser.parsePrimitive()).isPresent() ) {
+				handler.onKey(key);
+				processInlineArray(lineParser);
+			} else if (lineParser.scanPrimitive()) {
 				// value
-				try {
-					last.pushV(Value.primitive(primitive.get()));
-				} catch (OperationNotSupportedException e) {
-					throw new RuntimeException(e);
-				}
-			} else if(lineParser.have("|") ){
+				handler.onKey(key);
+				lineParser.reportPrimitive(handler);
+			} else if(lineParser.have('|') ){
 				// multi-line string
-				contextStack.push(ParsingContext.multiLineStringContext(indent + 1));
+				handler.onKey(key);
+				contextStack.push(ContextStack.MULTI_LINE_STRING, indent + 1);
 			}
 
 			// expected to reach end of line
@@ -197,13 +575,8 @@ public class Parser {
 			throw lineParser.generateError(new KvonException.UnexpectedCharacter());
 		}
 
-		try {
-			contextStack
-				.lastElement()
-				.pushKV(key, Value.none());
-		} catch (OperationNotSupportedException e) {
-			throw new RuntimeException(e);
-		}
+		handler.onKey(key);
+		handler.onNull();
 	}
 
 	/// Processes a line whose indention has been consumed in the context of an
@@ -214,19 +587,21 @@ public class Parser {
 			if (!lineParser.seeEndOrComment()) {
 				throw lineParser.generateError(new KvonException.UnexpectedCharacter());
 			}
-			contextStack.push(ParsingContext.arrayContext(indent + 1));
+			handler.startArray();
+			contextStack.push(ContextStack.ARRAY, indent + 1);
 			return;
 		}
 
 		// array entries must start with `-`
-		if (!lineParser.have("-")) {
+		if (!lineParser.have('-')) {
 			throw lineParser.generateError(new KvonException.Expected("-"));
 		}
 		lineParser.consumeWhitespaces();
 
 		// object with more than one key
 		if (lineParser.seeEndOrComment()) {
-			contextStack.push(ParsingContext.objectContext(indent + 1, ""));
+			handler.startObject();
+			contextStack.push(ContextStack.OBJECT, indent + 1);
 			return;
 		}
 
@@ -235,36 +610,34 @@ public class Parser {
 		if (key.length() > 0) {
 			lineParser.consumeWhitespaces();
 
-			ParsingContext last = contextStack.lastElement();
-
 			// object context with single root
 			if (lineParser.seeEndOrComment()) {
-				contextStack.push(ParsingContext.objectContext(indent + 1, key));
-				contextStack.push(ParsingContext.objectContext(indent + 1, ""));
+				handler.startObject();
+				handler.onKey(key);
+				handler.startObject();
+				contextStack.push(ContextStack.OBJECT, indent + 1);
+				contextStack.push(ContextStack.OBJECT, indent + 1);
 				return;
 			}
 
-			Optional<Value> value;
-			Optional<PrimitiveValue> primitive;
-
-			if ((value = lineParser.parseInlineArray()).isPresent()) {
+			if (lineParser.have('[')) {
 				// inlined array
-				try {
-					last.pushV(Value.keyValuePair(key, value.get()));
-				} catch (OperationNotSupportedException e) {
-					throw new RuntimeException(e);
-				}
-			} else if ((primitive = lineParser.parsePrimitive()).isPresent()) {
+				handler.startObject();
+				handler.onKey(key);
+				processInlineArray(lineParser);
+				handler.endObject();
+			} else if (lineParser.scanPrimitive()) {
 				// primitive
-				try {
-					last.pushV(Value.keyValuePair(key, Value.primitive(primitive.get())));
-				} catch (OperationNotSupportedException e) {
-					throw new RuntimeException(e);
-				}
-			} else if (lineParser.have("|")) {
+				handler.startObject();
+				handler.onKey(key);
+				lineParser.reportPrimitive(handler);
+				handler.endObject();
+			} else if (lineParser.have('|')) {
 				// object context with single root and multi line string value
-				contextStack.push(ParsingContext.objectContext(indent + 1, key));
-				contextStack.push(ParsingContext.multiLineStringContext(indent + 1));
+				handler.startObject();
+				handler.onKey(key);
+				contextStack.push(ContextStack.OBJECT, indent + 1);
+				contextStack.push(ContextStack.MULTI_LINE_STRING, indent + 1);
 			}
 
 			// expected to reach end of line
@@ -276,8 +649,8 @@ public class Parser {
 		}
 
 		// multi-line string
-		if (lineParser.have("|")) {
-			contextStack.push(ParsingContext.multiLineStringContext(indent + 1));
+		if (lineParser.have('|')) {
+			contextStack.push(ContextStack.MULTI_LINE_STRING, indent + 1);
 			return;
 		}
 
@@ -288,26 +661,15 @@ public class Parser {
 				break;
 			}
 
-			Optional<Value> value;
-			Optional<PrimitiveValue> primitive;
-
 			// inlined array
-			if ((value= lineParser.parseInlineArray()).isPresent()) {
-				try {
-					contextStack.lastElement().pushV(value.get());
-				} catch (OperationNotSupportedException e) {
-					throw new RuntimeException(e);
-				}
+			if (lineParser.have('[')) {
+				processInlineArray(lineParser);
 				continue;
 			}
 
 			// value
-			if ((primitive = lineParser.parsePrimitive()).isPresent()) {
-				try {
-					contextStack.lastElement().pushV(Value.primitive(primitive.get()));
-				} catch (OperationNotSupportedException e) {
-					throw new RuntimeException(e);
-				}
+			if (lineParser.scanPrimitive()) {
+				lineParser.reportPrimitive(handler);
 				continue;
 			}
 
@@ -325,12 +687,8 @@ public class Parser {
 	/// if it doesn't and the context has been popped or the top context isn't
 	/// a multi-line string.
 	boolean processMultiLineStringLine(LineParser lineParser) throws KvonException {
-		ParsingContext last = contextStack.lastElement();
-		int indent = last.getIndent();
-		if (last instanceof MultiLineStringContext) {
-			MultiLineStringContext mls = (MultiLineStringContext) last;
-			ArrayList<String> lines = mls.lines;
-
+		int indent = contextStack.topIndent();
+		if (contextStack.topKind() == ContextStack.MULTI_LINE_STRING) {
 			// if the indention isn't defined yet, analyze the line and define
 			// it.
 			if (indention != null) {
@@ -368,7 +726,10 @@ public class Parser {
 			}
 
 			// the rest of the line belongs to the screen
-			lines.add(lineParser.consumeRest());
+			if (multiLineCount++ > 0) {
+				multiLineText.append('\n');
+			}
+			lineParser.consumeRest(multiLineText);
 			return true;
 		} else {
 			return false;
@@ -377,10 +738,7 @@ public class Parser {
 
 	/// Calculates indention and then calls any of the `process_post_indent`
 	/// methods.
-	void processLine(String line) throws KvonException {
-		// wrap the line in a line parser
-		LineParser lineParser = new LineParser(lineNumber, line);
-
+	void processLine(LineParser lineParser) throws KvonException {
 		// handle multi-line strings
 		if (processMultiLineStringLine(lineParser)) {
 			return;
@@ -400,7 +758,7 @@ public class Parser {
 		// calculate the maximum indent the next item is allowed to be in
 		int maxIndent = 0;
 		if (contextStack.size() > 0) {
-			maxIndent = contextStack.lastElement().getIndent();
+			maxIndent = contextStack.topIndent();
 		}
 
 		// if the indent is invalid, return an error
@@ -411,39 +769,215 @@ public class Parser {
 		// pop contexts to match the indent
 		collapseContextToIndent(indent);
 
+		// outside the selected values, only the selected paths are reported
+		if (paths != null && indent < selectedIndent) {
+			selectedIndent = Integer.MAX_VALUE;
+			processUnselectedObject(lineParser, indent, count.tabs + count.spaces);
+			return;
+		}
+
 		// if the top context is an object, handle the rest of the line as an
 		// object's line
-		if (contextStack.lastElement().isObjectContext()) {
+		if (contextStack.topKind() == ContextStack.OBJECT) {
 			processPostIndentObject(lineParser, indent);
 			return;
 		}
 
 		// if the top context is an array, handle the rest of the line as an
 		// array's line
-		if (contextStack.lastElement().isArrayContext()) {
+		if (contextStack.topKind() == ContextStack.ARRAY) {
 			processPostIndentArray(lineParser, indent);
 		}
 	}
 
+	/// Makes the parser reuse the strings of keys and short text values found
+	/// in `interner`. The interner may be shared with other parsers. Pass null
+	/// to allocate a string for every occurrence, which is the default.
+	public void setInterner(StringInterner interner) {
+		this.interner = interner;
+	}
+
 	/// Parses another line.
 	public void nextLine(String line) throws KvonException {
-		processLine(line);
+		nextLine(line.toCharArray(), 0, line.length());
+	}
+
+	/// Parses another line, given as the range `[start, end)` of `chars`. The
+	/// characters are not retained after the call returns, so the buffer can
+	/// be reused for the next line.
+	public void nextLine(char[] chars, int start, int end) throws KvonException {
+		if (metrics != null) {
+			if (!metricsStarted) {
+				beginMetrics();
+			}
+			countLine(chars, start, end);
+		}
+		if (skipWidth < 0 || !skipsLine(chars, start, end)) {
+			lineParser.reset(lineNumber, chars, start, end, interner);
+			if (diagnostics == null) {
+				processLine(lineParser);
+			} else {
+				processLineCollectingErrors(chars, start, end);
+			}
+		}
 		lineNumber += 1;
 	}
 
-	/// Parses a string into a [value::Value].
+	private void processLineCollectingErrors(char[] chars, int start, int end) {
+		try {
+			processLine(lineParser);
+		} catch (KvonException e) {
+			diagnostics.add(e);
+
+			// go on with the next line which isn't indented deeper
+			int width = 0;
+			while (start + width < end && (chars[start + width] == ' ' || chars[start + width] == '\t'))
+				width++;
+			skipWidth = width;
+		}
+	}
+
+	/// Returns true if the line belongs to the key being skipped, which is
+	/// the case as long as lines are indented deeper than the key. Blank lines
+	/// and comments never end the skipped lines.
+	private boolean skipsLine(char[] chars, int start, int end) {
+		int i = start;
+		while (i < end && (chars[i] == ' ' || chars[i] == '\t'))
+			i++;
+
+		if (i == end || chars[i] == '#' || i - start > skipWidth) {
+			return true;
+		}
+
+		skipWidth = -1;
+		return false;
+	}
+
+	/// Collapses the remaining contexts and returns the parsed root object.
+	public Value finish() {
+		if (builder == null) {
+			throw new IllegalStateException("the document is reported to a handler");
+		}
+
+		endDocument();
+		return builder.getResult();
+	}
+
+	/// Parses a string into a [value::Value]. Like the other static `parse`
+	/// methods which build a tree, it reuses the parser of the calling thread,
+	/// see [ParserPool].
 	public static Value parseString(String s) throws KvonException {
+		return ParserPool.DEFAULT.parse(s);
+	}
+
+	/// Parses the characters of `reader` into a [value::Value]. The document is
+	/// read line by line into a reusable buffer, so it is never held in memory
+	/// as a whole. The reader is not closed.
+	public static Value parse(Reader reader) throws IOException, KvonException {
+		return parse(reader, (StringInterner) null);
+	}
+
+	/// Like `parse(Reader)`, but repeated keys and short text values share
+	/// the strings of `interner`. Pays off for documents with many records
+	/// of the same shape.
+	public static Value parse(Reader reader, StringInterner interner) throws IOException, KvonException {
+		if (interner == null) {
+			return ParserPool.DEFAULT.parse(reader);
+		}
+
+		ValueBuilder builder = new ValueBuilder();
+		parse(reader, builder, interner);
+		return builder.getResult();
+	}
+
+	/// Parses the characters of `reader` and reports them to `handler`
+	/// instead of building a tree. The reader is not closed.
+	public static void parse(Reader reader, KvonHandler handler) throws IOException, KvonException {
+		parse(reader, handler, null);
+	}
+
+	private static void parse(Reader reader, KvonHandler handler, StringInterner interner) throws IOException, KvonException {
+		Parser parser = new Parser(handler);
+		parser.setInterner(interner);
+		LineReader lines = new LineReader(reader);
+		while (lines.next()) {
+			parser.nextLine(lines.chars, lines.start, lines.end);
+		}
+
+		parser.endDocument();
+	}
+
+	/// Parses the bytes of `in`, decoded with `charset`, into a
+	/// [value::Value]. The stream is not closed.
+	public static Value parse(InputStream in, Charset charset) throws IOException, KvonException {
+		return parse(new InputStreamReader(in, charset));
+	}
+
+	/// Parses the characters of `reader` into a [value::Value] which only holds
+	/// the values at `paths`, see `select`. The reader is not closed.
+	public static Value parseSelected(Reader reader, String... paths) throws IOException, KvonException {
 		Parser parser = new Parser();
-		for (String line: s.split("\n\r?")) {
-			parser.nextLine(line);
+		parser.select(paths);
+		LineReader lines = new LineReader(reader);
+		while (lines.next()) {
+			parser.nextLine(lines.chars, lines.start, lines.end);
 		}
+		return parser.finish();
+	}
 
-		parser.collapseContext();
+	/// Parses a string into a [value::Value] which only holds the values at
+	/// `paths`, see `select`.
+	public static Value parseSelected(String s, String... paths) throws KvonException {
+		try {
+			return parseSelected(new StringReader(s), paths);
+		} catch (IOException e) {
+			// reading from a string never fails
+			throw new RuntimeException(e);
+		}
+	}
 
+	/// Checks the characters of `reader` without building a tree, and returns
+	/// all the errors rather than the first one, see `collectErrors`. The
+	/// reader is not closed.
+	public static Diagnostics validate(Reader reader) throws IOException {
+		Diagnostics diagnostics = new Diagnostics();
+		Parser parser = new Parser(new Ignore());
+		parser.collectErrors(diagnostics);
+		LineReader lines = new LineReader(reader);
 		try {
-			return Value.obj(parser.contextStack.lastElement().getObjects());
-		} catch (OperationNotSupportedException e) {
+			while (lines.next()) {
+				parser.nextLine(lines.chars, lines.start, lines.end);
+			}
+		} catch (KvonException e) {
+			// the errors are collected
 			throw new RuntimeException(e);
 		}
+
+		parser.endDocument();
+		return diagnostics;
+	}
+
+	/// Checks a string, see `validate(Reader)`.
+	public static Diagnostics validate(String s) {
+		try {
+			return validate(new StringReader(s));
+		} catch (IOException e) {
+			// reading from a string never fails
+			throw new RuntimeException(e);
+		}
+	}
+
+	/// Checks the UTF-8 encoded file at `path`, see `validate(Reader)`.
+	public static Diagnostics validate(Path path) throws IOException {
+		try (InputStream in = Files.newInputStream(path)) {
+			return validate(new InputStreamReader(in, StandardCharsets.UTF_8));
+		}
+	}
+
+	/// Parses the UTF-8 encoded file at `path` into a [value::Value].
+	public static Value parse(Path path) throws IOException, KvonException {
+		try (InputStream in = Files.newInputStream(path)) {
+			return parse(in, StandardCharsets.UTF_8);
+		}
 	}
 }
@@ -0,0 +1,87 @@
+package org.kvon;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
+/// Parses documents into [Value] trees with a parser per thread, which is
+/// reset between documents instead of being created anew. Parsing many small
+/// documents, like messages, then allocates little besides their trees.
+///
+/// ```
+/// ParserPool pool = new ParserPool();
+/// Value message = pool.parse(text);
+/// ```
+///
+/// The pool can be shared by any number of threads. The static `parse`
+/// methods of [Parser] which build trees use a pool of their own.
+public final class ParserPool {
+	/// The pool of the static `Parser.parse` methods.
+	static final ParserPool DEFAULT = new ParserPool();
+
+	/// The parser of a thread, with its tree builder and its line reader.
+	private static final class Slot {
+		final ValueBuilder builder;
+		final Parser parser;
+		final LineReader lines;
+		boolean inUse;
+
+		Slot(StringInterner interner) {
+			builder = new ValueBuilder();
+			parser = new Parser(builder);
+			parser.setInterner(interner);
+			lines = new LineReader(null);
+		}
+	}
+
+	private final StringInterner interner;
+	private final ThreadLocal<Slot> slots;
+
+	public ParserPool() {
+		this(null);
+	}
+
+	/// Creates a pool whose parsers reuse the strings of `interner`, see
+	/// `Parser.setInterner`.
+	public ParserPool(StringInterner interner) {
+		this.interner = interner;
+		this.slots = ThreadLocal.withInitial(() -> new Slot(interner));
+	}
+
+	/// Parses the string `s`.
+	public Value parse(String s) throws KvonException {
+		try {
+			return parse(new StringReader(s));
+		} catch (IOException e) {
+			// reading from a string never fails
+			throw new RuntimeException(e);
+		}
+	}
+
+	/// Parses the characters of `reader`, which is not closed.
+	public Value parse(Reader reader) throws IOException, KvonException {
+		Slot slot = slots.get();
+		if (slot.inUse) {
+			// parsing while parsing on the same thread
+			slot = new Slot(interner);
+		}
+
+		slot.inUse = true;
+		try {
+			slot.parser.reset();
+			if (slot.parser.getMetrics() != Parser.getDefaultMetrics()) {
+				slot.parser.setMetrics(Parser.getDefaultMetrics());
+			}
+			slot.lines.reset(reader);
+			while (slot.lines.next()) {
+				slot.parser.nextLine(slot.lines.chars, slot.lines.start, slot.lines.end);
+			}
+			return slot.parser.finish();
+		} finally {
+			// keep neither the input nor the tree
+			slot.lines.reset(null);
+			slot.builder.reset();
+			slot.inUse = false;
+		}
+	}
+}
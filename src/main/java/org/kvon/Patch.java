@@ -0,0 +1,306 @@
+package org.kvon;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/// The differences between two versions of a document, as the changes which
+/// turn the first into the second.
+///
+/// ```
+/// Patch patch = Patch.diff(previous, current);
+/// for (Patch.Change change: patch.getChanges())
+///     System.out.println(change);     // e.g. `CHANGED database.pool.size`
+/// Value copy = patch.apply(previous);
+/// ```
+///
+/// Keys are added, removed or changed. Arrays are compared element by
+/// element after skipping their common start and end: elements at the same
+/// position are diffed like values of the same key, and the rest is spliced,
+/// so inserting or removing a run of elements makes a single change.
+///
+/// Subtrees are compared by their fingerprints, 64 bit hashes which frozen
+/// objects compute once and keep, and which a diff computes once for the
+/// other containers, so the unchanged parts of two versions are skipped
+/// without being walked again. The versions must not change during the
+/// diff. Two different subtrees with the same fingerprint
+/// would be taken as equal, but the chance of that is negligible.
+public final class Patch {
+	public enum Kind {
+		/// A key which only the new version has.
+		ADDED,
+		/// A key which only the old version has.
+		REMOVED,
+		/// A key or an array element whose value changed.
+		CHANGED,
+		/// A run of array elements replaced by another, either of which may be
+		/// empty.
+		SPLICED,
+	}
+
+	public static final class Change {
+		public final Kind kind;
+		/// The keys and indices leading to the value, e.g. `servers[2].host`.
+		/// For a splice, the path of the array.
+		public final String path;
+		/// The old value, null if it was added. For a splice, an array of the
+		/// removed elements.
+		public final Value previous;
+		/// The new value, null if it was removed. For a splice, an array of the
+		/// inserted elements.
+		public final Value value;
+		/// For a splice, the index of the first removed element.
+		public final int index;
+		/// The path as keys and indices.
+		final Object[] steps;
+
+		Change(Kind kind, Object[] steps, Value previous, Value value, int index) {
+			this.kind = kind;
+			this.path = format(steps, steps.length);
+			this.previous = previous;
+			this.value = value;
+			this.index = index;
+			this.steps = steps;
+		}
+
+		/// Returns the path of the key holding the change: the path up to the
+		/// first array, or the whole path if there is no array on the way.
+		public String getKeyPath() {
+			int n = 0;
+			while (n < steps.length && steps[n] instanceof String)
+				n++;
+			return format(steps, n);
+		}
+
+		@Override
+		public String toString() {
+			return kind == Kind.SPLICED
+				? kind + " " + path + "[" + index + "] -" + previous.size() + " +" + value.size()
+				: kind + " " + path;
+		}
+	}
+
+	private final List<Change> changes;
+
+	private Patch(List<Change> changes) {
+		this.changes = changes;
+	}
+
+	/// Returns the changes which turn `from` into `to`.
+	public static Patch diff(Value from, Value to) {
+		ArrayList<Change> changes = new ArrayList<>();
+		diff(new ArrayList<>(), from, to, changes, new IdentityHashMap<>());
+		return new Patch(Collections.unmodifiableList(changes));
+	}
+
+	/// Returns the changes, in the order in which they are applied.
+	public List<Change> getChanges() {
+		return changes;
+	}
+
+	public boolean isEmpty() {
+		return changes.isEmpty();
+	}
+
+	/// Applies the changes to `root`, which is left as it is, and returns the
+	/// result. Only the objects and arrays on the paths of the changes are
+	/// copied, the rest is shared with `root` and with the new version the
+	/// patch was made from. Throws an `IllegalArgumentException` if `root`
+	/// doesn't have a path of the patch.
+	public Value apply(Value root) {
+		// the containers copied so far, which can be changed in place
+		IdentityHashMap<Value, Boolean> copies = new IdentityHashMap<>();
+		Value result = copy(root, copies);
+
+		for (Change change: changes) {
+			Object[] steps = change.steps;
+			if (steps.length == 0) {
+				result = copy(change.value, copies);
+				continue;
+			}
+
+			// the container holding the changed value, or the spliced array
+			int depth = change.kind == Kind.SPLICED ? steps.length : steps.length - 1;
+			Value container = result;
+			for (int i = 0; i < depth; i++) {
+				Value child = child(container, steps[i], change);
+				if (!copies.containsKey(child)) {
+					child = copy(child, copies);
+					set(container, steps[i], child);
+				}
+				container = child;
+			}
+
+			Object last = steps[steps.length - 1];
+			switch (change.kind) {
+				case ADDED:
+				case CHANGED:
+					if (last instanceof Integer) {
+						child(container, last, change);
+					} else if (!(container instanceof Value.FlatObj)) {
+						throw notApplicable(change);
+					}
+					set(container, last, change.value);
+					break;
+				case REMOVED:
+					if (!(container instanceof Value.FlatObj) || ((Value.FlatObj) container).remove((String) last) == null)
+						throw notApplicable(change);
+					break;
+				case SPLICED:
+					if (!container.isArray() || change.index + change.previous.size() > container.size())
+						throw notApplicable(change);
+					List<Value> elements = container.getArray().subList(change.index, change.index + change.previous.size());
+					elements.clear();
+					for (int i = 0; i < change.value.size(); i++)
+						elements.add(change.value.get(i));
+					break;
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (Change change: changes)
+			sb.append(change).append('\n');
+		return sb.toString();
+	}
+
+	private static void diff(ArrayList<Object> steps, Value a, Value b, ArrayList<Change> changes, IdentityHashMap<Value, Long> fingerprints) {
+		if (same(a, b, fingerprints)) {
+			return;
+		}
+
+		if (a.isObject() && b.isObject()) {
+			b.forEachField((key, value) -> {
+				Value old = a.get(key);
+				steps.add(key);
+				if (old == null) {
+					changes.add(new Change(Kind.ADDED, steps.toArray(), null, value, -1));
+				} else {
+					diff(steps, old, value, changes, fingerprints);
+				}
+				steps.remove(steps.size() - 1);
+			});
+			a.forEachField((key, value) -> {
+				if (b.get(key) == null) {
+					steps.add(key);
+					changes.add(new Change(Kind.REMOVED, steps.toArray(), value, null, -1));
+					steps.remove(steps.size() - 1);
+				}
+			});
+			return;
+		}
+
+		if (a.isArray() && b.isArray()) {
+			diffArray(steps, a, b, changes, fingerprints);
+			return;
+		}
+
+		changes.add(new Change(Kind.CHANGED, steps.toArray(), a, b, -1));
+	}
+
+	private static void diffArray(ArrayList<Object> steps, Value a, Value b, ArrayList<Change> changes, IdentityHashMap<Value, Long> fingerprints) {
+		int n = a.size();
+		int m = b.size();
+
+		int prefix = 0;
+		while (prefix < n && prefix < m && same(a.get(prefix), b.get(prefix), fingerprints))
+			prefix++;
+		int suffix = 0;
+		while (suffix < n - prefix && suffix < m - prefix && same(a.get(n - 1 - suffix), b.get(m - 1 - suffix), fingerprints))
+			suffix++;
+
+		// the elements left in both at the same positions
+		int paired = Math.min(n, m) - prefix - suffix;
+		for (int i = prefix; i < prefix + paired; i++) {
+			steps.add(i);
+			diff(steps, a.get(i), b.get(i), changes, fingerprints);
+			steps.remove(steps.size() - 1);
+		}
+
+		int removed = n - prefix - suffix - paired;
+		int inserted = m - prefix - suffix - paired;
+		if (removed > 0 || inserted > 0) {
+			int at = prefix + paired;
+			ArrayList<Value> previous = new ArrayList<>(removed);
+			for (int i = at; i < at + removed; i++)
+				previous.add(a.get(i));
+			ArrayList<Value> values = new ArrayList<>(inserted);
+			for (int i = at; i < at + inserted; i++)
+				values.add(b.get(i));
+			changes.add(new Change(Kind.SPLICED, steps.toArray(), Value.arr(previous), Value.arr(values), at));
+		}
+	}
+
+	/// Compares `a` and `b` by their fingerprints, which are kept in
+	/// `fingerprints` for the rest of the diff.
+	private static boolean same(Value a, Value b, IdentityHashMap<Value, Long> fingerprints) {
+		return a == b || Fingerprints.of(a, fingerprints) == Fingerprints.of(b, fingerprints);
+	}
+
+	/// Returns the value at `step` of `container`, which must exist.
+	private static Value child(Value container, Object step, Change change) {
+		Value child = null;
+		if (step instanceof String) {
+			child = container.isObject() ? container.get((String) step) : null;
+		} else if (container.isArray() && (Integer) step < container.size()) {
+			child = container.get((Integer) step);
+		}
+
+		if (child == null) {
+			throw notApplicable(change);
+		}
+		return child;
+	}
+
+	private static void set(Value container, Object step, Value value) {
+		if (step instanceof String) {
+			((Value.FlatObj) container).put((String) step, value);
+		} else {
+			container.getArray().set((Integer) step, value);
+		}
+	}
+
+	/// Copies a container, without its children. Primitives are returned as
+	/// they are.
+	private static Value copy(Value v, IdentityHashMap<Value, Boolean> copies) {
+		Value copy;
+		if (v.isObject()) {
+			Value.FlatObj obj = new Value.FlatObj(v.size());
+			v.forEachField(obj::put);
+			copy = obj;
+		} else if (v.isArray()) {
+			ArrayList<Value> arr = new ArrayList<>(v.size());
+			for (int i = 0; i < v.size(); i++)
+				arr.add(v.get(i));
+			copy = Value.arr(arr);
+		} else {
+			return v;
+		}
+
+		copies.put(copy, true);
+		return copy;
+	}
+
+	private static IllegalArgumentException notApplicable(Change change) {
+		return new IllegalArgumentException("the patch doesn't apply at " + change.path);
+	}
+
+	/// Formats the first `n` steps as `a.b[2].c`.
+	private static String format(Object[] steps, int n) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < n; i++) {
+			if (steps[i] instanceof Integer) {
+				sb.append('[').append(steps[i]).append(']');
+			} else {
+				if (sb.length() > 0)
+					sb.append('.');
+				sb.append(steps[i]);
+			}
+		}
+		return sb.toString();
+	}
+}
@@ -1,5 +1,7 @@
 package org.kvon;
 
+import java.math.BigDecimal;
+
 public interface PrimitiveValue {
 	class Number implements PrimitiveValue {
 		public float number;
@@ -17,6 +19,91 @@ public interface PrimitiveValue {
 		public Float getNumber() {
 			return number;
 		}
+
+		@Override
+		public double getDouble() {
+			return number;
+		}
+
+		@Override
+		public long getLong() {
+			return (long) number;
+		}
+
+		@Override
+		public BigDecimal getBigDecimal() {
+			return new BigDecimal(number);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof PrimitiveValue && PrimitiveValue.equal(this, (PrimitiveValue) o);
+		}
+
+		@Override
+		public int hashCode() {
+			return Fingerprints.hashCode(this);
+		}
+	}
+
+	/// A number which keeps the characters of its literal, so no digits are
+	/// lost. The literal is only converted when one of the getters is called,
+	/// and the converted double is cached.
+	class NumberLiteral implements PrimitiveValue {
+		public final String source;
+		private double value;
+		/// Volatile, so a number shared between threads is never seen as
+		/// converted before its value.
+		private volatile boolean converted;
+
+		public NumberLiteral(String source) {
+			this.source = source;
+			this.converted = false;
+		}
+
+		@Override
+		public boolean isNumber() {
+			return true;
+		}
+
+		@Override
+		public Float getNumber() {
+			return getFloat();
+		}
+
+		@Override
+		public double getDouble() {
+			if (!converted) {
+				value = Numbers.parseDouble(source);
+				converted = true;
+			}
+			return value;
+		}
+
+		@Override
+		public long getLong() {
+			return Numbers.parseLong(source);
+		}
+
+		@Override
+		public BigDecimal getBigDecimal() {
+			return new BigDecimal(source);
+		}
+
+		@Override
+		public String toString() {
+			return source;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof PrimitiveValue && PrimitiveValue.equal(this, (PrimitiveValue) o);
+		}
+
+		@Override
+		public int hashCode() {
+			return Fingerprints.hashCode(this);
+		}
 	}
 
 	class Text implements PrimitiveValue {
@@ -35,6 +122,16 @@ public interface PrimitiveValue {
 		public String getText() {
 			return text;
 		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof PrimitiveValue && PrimitiveValue.equal(this, (PrimitiveValue) o);
+		}
+
+		@Override
+		public int hashCode() {
+			return Fingerprints.hashCode(this);
+		}
 	}
 
 	class Boolean implements PrimitiveValue {
@@ -53,12 +150,32 @@ public interface PrimitiveValue {
 		public java.lang.Boolean getBoolean() {
 			return b;
 		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof PrimitiveValue && PrimitiveValue.equal(this, (PrimitiveValue) o);
+		}
+
+		@Override
+		public int hashCode() {
+			return Fingerprints.hashCode(this);
+		}
 	}
 
 	class None implements PrimitiveValue {
 		@Override
 		public boolean isNone() {
-			return PrimitiveValue.super.isNone();
+			return true;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof PrimitiveValue && PrimitiveValue.equal(this, (PrimitiveValue) o);
+		}
+
+		@Override
+		public int hashCode() {
+			return Fingerprints.hashCode(this);
 		}
 	}
 
@@ -76,10 +193,73 @@ public interface PrimitiveValue {
 
 	default java.lang.Boolean getBoolean() { return null; }
 
+	/// Returns the number as a double without boxing it. Throws if this is
+	/// not a number.
+	default double getDouble() { throw new UnsupportedOperationException("not a number"); }
+
+	/// Returns the number as a float without boxing it. Throws if this is not
+	/// a number.
+	default float getFloat() { return (float) getDouble(); }
+
+	/// Returns the number truncated to a long, saturated to the range of a
+	/// long. Throws if this is not a number.
+	default long getLong() { throw new UnsupportedOperationException("not a number"); }
+
+	/// Returns the exact number. Returns null if this is not a number.
+	default BigDecimal getBigDecimal() { return null; }
+
+	/// Returns true if `p` and `q` are of the same kind and have the same
+	/// value. Numbers are compared by their exact values, so `1` equals `1.00`.
+	static boolean equal(PrimitiveValue p, PrimitiveValue q) {
+		if (p == q) {
+			return true;
+		}
+		if (p == null || q == null) {
+			return false;
+		}
+
+		if (p.isNumber()) {
+			if (!q.isNumber()) {
+				return false;
+			}
+			if (p instanceof NumberLiteral && q instanceof NumberLiteral && ((NumberLiteral) p).source.equals(((NumberLiteral) q).source)) {
+				return true;
+			}
+
+			// only the infinite and NaN floats have no exact values
+			boolean exactP = p instanceof NumberLiteral || Double.isFinite(p.getDouble());
+			boolean exactQ = q instanceof NumberLiteral || Double.isFinite(q.getDouble());
+			if (!exactP || !exactQ) {
+				return !exactP && !exactQ && Double.compare(p.getDouble(), q.getDouble()) == 0;
+			}
+
+			// equal numbers convert to equal doubles, unless they overflow, and
+			// the conversions are cached
+			double a = p.getDouble();
+			double b = q.getDouble();
+			if (a != b && Double.isFinite(a) && Double.isFinite(b)) {
+				return false;
+			}
+			return p.getBigDecimal().compareTo(q.getBigDecimal()) == 0;
+		}
+		if (p.isText()) {
+			return q.isText() && p.getText().equals(q.getText());
+		}
+		if (p.isBoolean()) {
+			return q.isBoolean() && p.getBoolean().equals(q.getBoolean());
+		}
+		return p.isNone() && q.isNone();
+	}
+
 	static PrimitiveValue number(float number) {
 		return new Number(number);
 	}
 
+	/// A number given as its literal, e.g. `-12.50`.
+	static PrimitiveValue numberLiteral(String literal) {
+		return new NumberLiteral(literal);
+	}
+
 	static PrimitiveValue text(String s) {
 		return new Text(s);
 	}
@@ -0,0 +1,254 @@
+package org.kvon;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/// Reads a stream of records - KVON documents separated by a delimiter line,
+/// `---` by default:
+///
+/// ```
+/// event: 'login'
+/// user: 'ada'
+/// ---
+/// event: 'logout'
+/// user: 'ada'
+/// ```
+///
+/// A delimiter line matches the delimiter exactly, without indention. Every
+/// record is parsed on its own, so each detects its own indention and an
+/// error in one record doesn't affect the others. Delimiters with nothing
+/// but blank lines between them don't make a record, so a leading or a
+/// trailing delimiter is allowed.
+///
+/// Records are parsed one at a time as they are iterated, by a single parser
+/// which is reset between records. `parallelStream` parses them across the
+/// threads of the common pool instead. Use either the iterator or one of the
+/// streams, since they all consume the same input.
+///
+/// Since an `Iterator` can't throw checked exceptions, an `IOException` is
+/// rethrown as an `UncheckedIOException` and a `KvonException` is rethrown
+/// wrapped in a `RuntimeException`. Its line number counts the lines of the
+/// whole stream. After a record fails, the iteration can go on with the
+/// next record.
+public class RecordReader implements Iterator<Value> {
+	public static final String DEFAULT_DELIMITER = "---";
+
+	private final LineReader lines;
+	private final String delimiter;
+	private final Parser parser;
+	private StringInterner interner;
+	/// The number of lines read so far.
+	private int lineNumber;
+	private boolean eof;
+	/// The record `hasNext` has read ahead, if any.
+	private Value next;
+
+	/// Receives the lines of a record.
+	private interface LineSink {
+		void line(char[] chars, int start, int end) throws KvonException;
+	}
+
+	/// The lines of a record, for parsing it on another thread.
+	private static class RecordText {
+		final String text;
+		/// The number of the first line of the record in the stream.
+		final int lineNumber;
+
+		RecordText(String text, int lineNumber) {
+			this.text = text;
+			this.lineNumber = lineNumber;
+		}
+	}
+
+	public RecordReader(Reader reader) {
+		this(reader, DEFAULT_DELIMITER);
+	}
+
+	public RecordReader(Reader reader, String delimiter) {
+		this.lines = new LineReader(reader);
+		this.delimiter = delimiter;
+		this.parser = new Parser();
+		this.lineNumber = 0;
+		this.eof = false;
+	}
+
+	public static RecordReader fromString(String s) {
+		return new RecordReader(new StringReader(s));
+	}
+
+	/// Makes the records reuse the strings of repeated keys and short texts,
+	/// see `Parser.setInterner`. Since records tend to share their keys, this
+	/// pays off for most streams.
+	public void setInterner(StringInterner interner) {
+		this.interner = interner;
+		parser.setInterner(interner);
+	}
+
+	@Override
+	public boolean hasNext() {
+		while (next == null && !eof) {
+			next = parseRecord();
+		}
+		return next != null;
+	}
+
+	@Override
+	public Value next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+
+		Value record = next;
+		next = null;
+		return record;
+	}
+
+	/// Returns the records as a sequential stream.
+	public Stream<Value> stream() {
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false);
+	}
+
+	/// Returns the records as a parallel stream. The lines of the records are
+	/// read on the thread consuming the stream, while the records are parsed
+	/// in parallel. The stream is ordered, so `forEachOrdered` and `collect`
+	/// still see the records in the order of the input.
+	public Stream<Value> parallelStream() {
+		Iterator<RecordText> texts = new Iterator<RecordText>() {
+			private RecordText next;
+
+			@Override
+			public boolean hasNext() {
+				while (next == null && !eof) {
+					next = readRecordText();
+				}
+				return next != null;
+			}
+
+			@Override
+			public RecordText next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+
+				RecordText text = next;
+				next = null;
+				return text;
+			}
+		};
+
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(texts, Spliterator.ORDERED | Spliterator.NONNULL), true)
+			.map(this::parseRecordText);
+	}
+
+	/// Parses the next record with the reusable parser. Returns null if the
+	/// record had no content.
+	private Value parseRecord() {
+		parser.reset();
+		parser.lineNumber = lineNumber;
+
+		boolean content;
+		try {
+			content = readRecord(parser::nextLine);
+		} catch (KvonException e) {
+			// move on to the next record, so the iteration can go on
+			skipRecord();
+			throw new RuntimeException(e);
+		}
+
+		Value record = parser.finish();
+		return content ? record : null;
+	}
+
+	private void skipRecord() {
+		try {
+			readRecord((chars, start, end) -> { });
+		} catch (KvonException e) {
+			// skipping lines never fails
+			throw new RuntimeException(e);
+		}
+	}
+
+	/// Reads the lines of the next record into a string. Returns null if the
+	/// record had no content.
+	private RecordText readRecordText() {
+		StringBuilder text = new StringBuilder();
+		int first = lineNumber;
+		boolean content;
+		try {
+			content = readRecord((chars, start, end) -> text.append(chars, start, end - start).append('\n'));
+		} catch (KvonException e) {
+			// collecting lines never fails
+			throw new RuntimeException(e);
+		}
+		return content ? new RecordText(text.toString(), first) : null;
+	}
+
+	private Value parseRecordText(RecordText record) {
+		Parser parser = new Parser();
+		parser.setInterner(interner);
+		parser.lineNumber = record.lineNumber;
+
+		try {
+			LineReader lines = new LineReader(new StringReader(record.text));
+			while (lines.next()) {
+				parser.nextLine(lines.chars, lines.start, lines.end);
+			}
+		} catch (IOException e) {
+			// reading from a string never fails
+			throw new UncheckedIOException(e);
+		} catch (KvonException e) {
+			throw new RuntimeException(e);
+		}
+		return parser.finish();
+	}
+
+	/// Hands the lines up to the next delimiter to `sink`. Returns true if
+	/// any of them has content.
+	private boolean readRecord(LineSink sink) throws KvonException {
+		boolean content = false;
+		try {
+			while (lines.next()) {
+				lineNumber++;
+				if (isDelimiter()) {
+					return content;
+				}
+
+				content |= hasContent();
+				sink.line(lines.chars, lines.start, lines.end);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		eof = true;
+		return content;
+	}
+
+	private boolean isDelimiter() {
+		if (lines.end - lines.start != delimiter.length()) {
+			return false;
+		}
+		for (int i = 0; i < delimiter.length(); i++) {
+			if (lines.chars[lines.start + i] != delimiter.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	private boolean hasContent() {
+		for (int i = lines.start; i < lines.end; i++) {
+			char c = lines.chars[i];
+			if (c != ' ' && c != '\t')
+				return true;
+		}
+		return false;
+	}
+}
@@ -0,0 +1,87 @@
+package org.kvon;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/// Searches lines for the characters the parser stops at, in tight loops
+/// the JIT compiles well.
+///
+/// UTF-8 bytes are searched a word at a time: 8 bytes are read as a `long`
+/// and tested together for the byte searched for, with the classic trick
+/// which sets the high bit of the zero bytes of `word ^ pattern`. The
+/// buffers must be little-endian, so the first match is the lowest set
+/// bit. Characters are searched one by one, since a `char[]` can't be read
+/// as `long`s, and packing 4 characters into one is slower than comparing
+/// them.
+final class Scan {
+	private static final long ONES = 0x0101010101010101L;
+	private static final long HIGHS = 0x8080808080808080L;
+
+	/// The ASCII characters which end a key without quotes, so a key is
+	/// scanned with a single test per character.
+	private static final boolean[] KEY_TERMINATORS = new boolean[128];
+
+	static {
+		for (char c: new char[] {' ', '\t', ':', '#', ';'})
+			KEY_TERMINATORS[c] = true;
+	}
+
+	private Scan() { }
+
+	/// Wraps `bytes` for `indexOf`.
+	static ByteBuffer wrap(byte[] bytes) {
+		return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/// Returns the index of the first `b` in `[from, to)` of a little-endian
+	/// buffer, or -1 if there is none.
+	static int indexOf(ByteBuffer buffer, int from, int to, byte b) {
+		long pattern = ONES * (b & 0xff);
+		int i = from;
+		for (; i + 8 <= to; i += 8) {
+			long word = buffer.getLong(i) ^ pattern;
+			// only the bytes which were `b` are 0, and a borrow never reaches
+			// below the first of them
+			long zeros = (word - ONES) & ~word & HIGHS;
+			if (zeros != 0)
+				return i + (Long.numberOfTrailingZeros(zeros) >>> 3);
+		}
+		for (; i < to; i++) {
+			if (buffer.get(i) == b)
+				return i;
+		}
+		return -1;
+	}
+
+	/// Returns the index of the first `c` in `[from, to)`, or -1 if there is
+	/// none.
+	static int indexOf(char[] chars, int from, int to, char c) {
+		for (int i = from; i < to; i++) {
+			if (chars[i] == c)
+				return i;
+		}
+		return -1;
+	}
+
+	/// Returns the index of the first space, tab, `:`, `#` or `;` in
+	/// `[from, to)`, or `to` if there is none.
+	static int skipKey(char[] chars, int from, int to) {
+		int i = from;
+		while (i < to && !isKeyTerminator(chars[i]))
+			i++;
+		return i;
+	}
+
+	/// Returns the index of the first character in `[from, to)` which isn't
+	/// a space or a tab, or `to` if there is none.
+	static int skipWhitespaces(char[] chars, int from, int to) {
+		int i = from;
+		while (i < to && (chars[i] == ' ' || chars[i] == '\t'))
+			i++;
+		return i;
+	}
+
+	static boolean isKeyTerminator(char c) {
+		return c < 128 && KEY_TERMINATORS[c];
+	}
+}
@@ -0,0 +1,499 @@
+package org.kvon;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.function.BiConsumer;
+
+/// A document compiled into a binary file, which is loaded by mapping it
+/// into memory instead of parsing it. Its values are read from the mapping
+/// when they are accessed, so opening a snapshot costs the same whatever its
+/// size, and only the parts which are used are ever paged in.
+///
+/// ```
+/// Snapshot.compile(Parser.parse(Paths.get("reference.kvon")), Paths.get("reference.kvons"));
+///
+/// try (Snapshot snapshot = Snapshot.open(Paths.get("reference.kvons"))) {
+///     Value size = snapshot.getRoot().get("database").get("pool").get("size");
+/// }
+/// ```
+///
+/// The file is big-endian, and made of:
+///
+/// - A header: the magic number, the version, and the numbers of entries,
+///   of strings, of slots of the string hash table and of elements in the
+///   element table, as 4 byte ints.
+/// - The entries, 8 bytes each, laid out like those of a [Tape]: keys, texts
+///   and number literals hold the index of their string, and integers of up
+///   to 16 digits are held by their entries. The end of an array holds 0 if
+///   each of its elements is a single entry, so element `i` is the entry
+///   `i + 1` after the start, or else 1 plus the position of its elements in
+///   the element table.
+/// - The element table: the indices of the entries of the elements of the
+///   arrays which need it, 4 bytes each, padded to a multiple of 8 bytes.
+/// - The offsets of the strings, 8 bytes each, and the end of the last one.
+/// - The hash table of the keys, with linear probing: every slot holds 1
+///   plus the index of a key's string, or 0 if it's empty.
+/// - The strings, UTF-8 encoded. Every distinct string is stored once.
+///
+/// Objects and arrays are read-only views of the mapping, which make new
+/// values on every access: `getObject` and `getArray` return copies. An
+/// array element is found directly, through its position or the element
+/// table. A key is looked up in the hash table first, so a missing key is
+/// found out without scanning the object, and then among the keys of the
+/// object, by the index of its string.
+public final class Snapshot implements Closeable {
+	private static final int MAGIC = 0x4b56534e;
+	private static final int VERSION = 2;
+	private static final int HEADER_SIZE = 24;
+
+	/// An integer held by its entry.
+	static final long INTEGER = (long) 'i' << 56;
+	/// The digits of the integers held by their entries, which fit in 56 bits
+	/// with their sign.
+	private static final int INTEGER_DIGITS = 16;
+
+	/// The size of the mapped segments. A single mapping can't exceed 2 GB,
+	/// and entries never straddle two segments since they are aligned.
+	private static final long SEGMENT_SIZE = 1L << 30;
+
+	private final FileChannel channel;
+	private final MappedByteBuffer[] segments;
+	private final int stringCount;
+	private final int slotCount;
+	private final long elementsStart;
+	private final long offsetsStart;
+	private final long slotsStart;
+	private final long stringsStart;
+
+	private Snapshot(FileChannel channel, MappedByteBuffer[] segments, int entryCount, int stringCount, int slotCount, int elementCount) {
+		this.channel = channel;
+		this.segments = segments;
+		this.stringCount = stringCount;
+		this.slotCount = slotCount;
+		this.elementsStart = HEADER_SIZE + 8L * entryCount;
+		this.offsetsStart = elementsStart + 4L * (elementCount + (elementCount & 1));
+		this.slotsStart = offsetsStart + 8L * (stringCount + 1);
+		this.stringsStart = slotsStart + 4L * slotCount;
+	}
+
+	/// Compiles the tree `root` into a snapshot at `file`.
+	public static void compile(Value root, Path file) throws IOException {
+		Compiler compiler = new Compiler();
+		compiler.value(root);
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16))) {
+			compiler.write(out);
+		}
+	}
+
+	/// Maps the snapshot at `file`. Throws an `IOException` if it isn't a
+	/// snapshot of this version.
+	public static Snapshot open(Path file) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			long size = channel.size();
+			MappedByteBuffer[] segments = new MappedByteBuffer[(int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+			for (int i = 0; i < segments.length; i++) {
+				long from = i * SEGMENT_SIZE;
+				segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, from, Math.min(SEGMENT_SIZE, size - from));
+			}
+
+			if (size < HEADER_SIZE || segments[0].getInt(0) != MAGIC || segments[0].getInt(4) != VERSION) {
+				throw new IOException("not a KVON snapshot: " + file);
+			}
+			Snapshot snapshot = new Snapshot(channel, segments, segments[0].getInt(8), segments[0].getInt(12), segments[0].getInt(16), segments[0].getInt(20));
+			if (snapshot.stringsStart > size || snapshot.stringsStart + snapshot.offset(snapshot.stringCount) != size) {
+				throw new IOException("truncated KVON snapshot: " + file);
+			}
+			return snapshot;
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/// Returns the root object, read from the mapping as it is accessed.
+	public Value getRoot() {
+		return value(0);
+	}
+
+	/// Closes the file. The values stay readable, and the mappings are
+	/// released once they are collected.
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	private long entry(int i) {
+		long position = HEADER_SIZE + 8L * i;
+		return segments[(int) (position / SEGMENT_SIZE)].getLong((int) (position % SEGMENT_SIZE));
+	}
+
+	private long offset(int string) {
+		long position = offsetsStart + 8L * string;
+		return segments[(int) (position / SEGMENT_SIZE)].getLong((int) (position % SEGMENT_SIZE));
+	}
+
+	private int element(long i) {
+		long position = elementsStart + 4L * i;
+		return segments[(int) (position / SEGMENT_SIZE)].getInt((int) (position % SEGMENT_SIZE));
+	}
+
+	private int slot(int i) {
+		long position = slotsStart + 4L * i;
+		return segments[(int) (position / SEGMENT_SIZE)].getInt((int) (position % SEGMENT_SIZE));
+	}
+
+	private byte byteAt(long position) {
+		return segments[(int) (position / SEGMENT_SIZE)].get((int) (position % SEGMENT_SIZE));
+	}
+
+	/// Returns the index of the entry after the value at `i`.
+	private int after(int i) {
+		long entry = entry(i);
+		long tag = entry & ~Tape.PAYLOAD;
+		if (tag == Tape.OBJECT || tag == Tape.ARRAY)
+			return (int) entry + 1;
+		return tag == Tape.DOUBLE ? i + 2 : i + 1;
+	}
+
+	/// Returns the number of children of the container at `start`.
+	private int count(int start) {
+		long entry = entry(start);
+		int count = (int) (entry >>> 32) & Tape.MAX_COUNT;
+		if (count < Tape.MAX_COUNT)
+			return count;
+
+		// too many to be stored
+		boolean object = (entry & ~Tape.PAYLOAD) == Tape.OBJECT;
+		count = 0;
+		for (int i = start + 1; i < (int) entry; i = after(object ? i + 1 : i))
+			count++;
+		return count;
+	}
+
+	private String string(long entry) {
+		int string = (int) (entry & Tape.PAYLOAD);
+		long from = stringsStart + offset(string);
+		byte[] bytes = new byte[(int) (stringsStart + offset(string + 1) - from)];
+		for (int i = 0; i < bytes.length; i++)
+			bytes[i] = byteAt(from + i);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/// Returns the index of the string of the key `s`, or -1 if the snapshot
+	/// doesn't have such a key.
+	private int find(String s) {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		for (int i = hash(s) & (slotCount - 1); ; i = (i + 1) & (slotCount - 1)) {
+			int string = slot(i) - 1;
+			if (string < 0)
+				return -1;
+
+			long from = stringsStart + offset(string);
+			if (stringsStart + offset(string + 1) - from == bytes.length) {
+				int j = 0;
+				while (j < bytes.length && byteAt(from + j) == bytes[j])
+					j++;
+				if (j == bytes.length)
+					return string;
+			}
+		}
+	}
+
+	private static int hash(String s) {
+		int h = s.hashCode() * 0x9e3779b9;
+		return h ^ (h >>> 16);
+	}
+
+	private Value value(int i) {
+		long entry = entry(i);
+		long tag = entry & ~Tape.PAYLOAD;
+
+		if (tag == Tape.OBJECT)
+			return new MappedObj(i);
+		if (tag == Tape.ARRAY)
+			return new MappedArr(i);
+		if (tag == Tape.TEXT)
+			return Value.text(string(entry));
+		if (tag == Tape.NUMBER)
+			return Value.numberLiteral(string(entry));
+		if (tag == INTEGER)
+			return Value.numberLiteral(Long.toString(entry << 8 >> 8));
+		if (tag == Tape.DOUBLE)
+			return Value.number((float) Double.longBitsToDouble(entry(i + 1)));
+		if (tag == Tape.TRUE || tag == Tape.FALSE)
+			return Value.bool(tag == Tape.TRUE);
+		return Value.none();
+	}
+
+	/// An object of the snapshot, given by the index of its start.
+	private final class MappedObj implements Value {
+		private final int start;
+
+		MappedObj(int start) {
+			this.start = start;
+		}
+
+		@Override
+		public boolean isObject() {
+			return true;
+		}
+
+		@Override
+		@Deprecated
+		public HashMap<String, Value> getObject() {
+			HashMap<String, Value> obj = new HashMap<>();
+			forEachField(obj::put);
+			return obj;
+		}
+
+		@Override
+		public Value get(String key) {
+			int string = find(key);
+			if (string < 0)
+				return null;
+
+			int end = (int) entry(start);
+			for (int i = start + 1; i < end; i = after(i + 1)) {
+				if ((int) (entry(i) & Tape.PAYLOAD) == string)
+					return value(i + 1);
+			}
+			return null;
+		}
+
+		@Override
+		public int size() {
+			return count(start);
+		}
+
+		@Override
+		public void forEachField(BiConsumer<String, Value> action) {
+			int end = (int) entry(start);
+			for (int i = start + 1; i < end; i = after(i + 1))
+				action.accept(string(entry(i)), value(i + 1));
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Value && Value.equal(this, (Value) o);
+		}
+
+		@Override
+		public int hashCode() {
+			return Fingerprints.hashCode(this);
+		}
+	}
+
+	/// An array of the snapshot, given by the index of its start.
+	private final class MappedArr implements Value {
+		private final int start;
+
+		MappedArr(int start) {
+			this.start = start;
+		}
+
+		@Override
+		public boolean isArray() {
+			return true;
+		}
+
+		@Override
+		public ArrayList<Value> getArray() {
+			ArrayList<Value> arr = new ArrayList<>(size());
+			int end = (int) entry(start);
+			for (int i = start + 1; i < end; i = after(i))
+				arr.add(value(i));
+			return arr;
+		}
+
+		@Override
+		public Value get(int index) {
+			if (index < 0 || index >= size())
+				throw new IndexOutOfBoundsException("index " + index + ", size " + size());
+
+			long elements = entry((int) entry(start)) & Tape.PAYLOAD;
+			return value(elements == 0 ? start + 1 + index : element(elements - 1 + index));
+		}
+
+		@Override
+		public int size() {
+			return count(start);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Value && Value.equal(this, (Value) o);
+		}
+
+		@Override
+		public int hashCode() {
+			return Fingerprints.hashCode(this);
+		}
+	}
+
+	/// Lays a tree out as entries, and collects its distinct strings.
+	private static final class Compiler {
+		private long[] entries = new long[1024];
+		private int size;
+		private final HashMap<String, Integer> strings = new HashMap<>();
+		private final ArrayList<byte[]> bytes = new ArrayList<>();
+		private final ArrayList<String> order = new ArrayList<>();
+		/// The indices of the strings which are keys.
+		private final BitSet keys = new BitSet();
+		private int[] elements = new int[256];
+		private int elementCount;
+
+		void value(Value v) {
+			if (v.isObject() || v.isArray()) {
+				boolean object = v.isObject();
+				int start = size;
+				add(object ? Tape.OBJECT : Tape.ARRAY);
+				if (object) {
+					v.forEachField((key, value) -> {
+						add(Tape.KEY | key(key));
+						value(value);
+					});
+				} else {
+					// the elements can be found directly if they are single
+					// entries, otherwise they are listed in the element table
+					int[] indices = new int[v.size()];
+					boolean direct = true;
+					for (int i = 0; i < indices.length; i++) {
+						indices[i] = size;
+						direct &= size == start + 1 + i;
+						value(v.get(i));
+					}
+					direct &= size == start + 1 + indices.length;
+
+					long count = Math.min(v.size(), Tape.MAX_COUNT);
+					entries[start] |= count << 32 | size;
+					add(Tape.ARRAY_END | (direct ? 0 : 1L + addElements(indices)));
+					return;
+				}
+
+				long count = Math.min(v.size(), Tape.MAX_COUNT);
+				entries[start] |= count << 32 | size;
+				add(Tape.OBJECT_END | start);
+				return;
+			}
+
+			PrimitiveValue p = v.getPrimitive();
+			if (p.isText()) {
+				add(Tape.TEXT | string(p.getText()));
+			} else if (p instanceof PrimitiveValue.NumberLiteral) {
+				String literal = ((PrimitiveValue.NumberLiteral) p).source;
+				if (isSmallInteger(literal)) {
+					add(INTEGER | (Long.parseLong(literal) & Tape.PAYLOAD));
+				} else {
+					add(Tape.NUMBER | string(literal));
+				}
+			} else if (p.isNumber()) {
+				add(Tape.DOUBLE);
+				add(Double.doubleToRawLongBits(p.getDouble()));
+			} else if (p.isBoolean()) {
+				add(p.getBoolean() ? Tape.TRUE : Tape.FALSE);
+			} else {
+				add(Tape.NULL);
+			}
+		}
+
+		void write(DataOutputStream out) throws IOException {
+			int slotCount = Integer.highestOneBit(Math.max(keys.cardinality(), 1)) * 4;
+			int[] slots = new int[slotCount];
+			for (int s = keys.nextSetBit(0); s >= 0; s = keys.nextSetBit(s + 1)) {
+				int i = hash(order.get(s)) & (slotCount - 1);
+				while (slots[i] != 0)
+					i = (i + 1) & (slotCount - 1);
+				slots[i] = s + 1;
+			}
+
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(size);
+			out.writeInt(order.size());
+			out.writeInt(slotCount);
+			out.writeInt(elementCount);
+
+			for (int i = 0; i < size; i++)
+				out.writeLong(entries[i]);
+			for (int i = 0; i < elementCount; i++)
+				out.writeInt(elements[i]);
+			if ((elementCount & 1) != 0)
+				out.writeInt(0);
+			long offset = 0;
+			for (byte[] b: bytes) {
+				out.writeLong(offset);
+				offset += b.length;
+			}
+			out.writeLong(offset);
+			for (int slot: slots)
+				out.writeInt(slot);
+			for (byte[] b: bytes)
+				out.write(b);
+		}
+
+		private void add(long entry) {
+			if (size == entries.length)
+				entries = Arrays.copyOf(entries, size * 2);
+			entries[size++] = entry;
+		}
+
+		/// Appends the indices of the elements of an array to the element
+		/// table, and returns the position of the first one.
+		private int addElements(int[] indices) {
+			if (elementCount + indices.length > elements.length)
+				elements = Arrays.copyOf(elements, Math.max(elements.length * 2, elementCount + indices.length));
+			System.arraycopy(indices, 0, elements, elementCount, indices.length);
+			elementCount += indices.length;
+			return elementCount - indices.length;
+		}
+
+		/// Returns the index of the string of the key `s`, adding it if it's
+		/// new.
+		private long key(String s) {
+			long index = string(s);
+			keys.set((int) index);
+			return index;
+		}
+
+		/// Returns the index of the string `s`, adding it if it's new.
+		private long string(String s) {
+			Integer index = strings.get(s);
+			if (index == null) {
+				index = order.size();
+				strings.put(s, index);
+				order.add(s);
+				bytes.add(s.getBytes(StandardCharsets.UTF_8));
+			}
+			return index;
+		}
+
+		/// Returns true if `literal` is an integer held by its entry, written
+		/// the way `Long.toString` writes it, so it's read back the same.
+		private static boolean isSmallInteger(String literal) {
+			int start = literal.startsWith("-") ? 1 : 0;
+			int digits = literal.length() - start;
+			if (digits == 0 || digits > INTEGER_DIGITS || (literal.charAt(start) == '0' && (digits > 1 || start == 1)))
+				return false;
+			for (int i = start; i < literal.length(); i++) {
+				char c = literal.charAt(i);
+				if (c < '0' || c > '9')
+					return false;
+			}
+			return true;
+		}
+	}
+}
@@ -0,0 +1,80 @@
+package org.kvon;
+
+/// A bounded table of strings which lets a parser reuse one `String` for
+/// keys and short text values that repeat, instead of allocating one per
+/// occurrence. A lookup hashes the characters of the source line, so a
+/// string is only allocated the first time it's seen.
+///
+/// The table never grows: once a slot's neighbourhood is full, a new string
+/// replaces the oldest one in it. Slots hold immutable strings and are
+/// updated with plain writes, so a single table can be shared by parsers on
+/// different threads - a racing lookup at worst allocates a duplicate.
+public final class StringInterner {
+	/// How many neighbouring slots a lookup probes.
+	private static final int PROBES = 4;
+
+	private final String[] slots;
+	private final int mask;
+	private final int maxLength;
+
+	/// Creates a table of about `capacity` strings, which interns strings of
+	/// up to `maxLength` characters.
+	public StringInterner(int capacity, int maxLength) {
+		int size = Integer.highestOneBit(Math.max(capacity, PROBES) - 1) << 1;
+		this.slots = new String[size];
+		this.mask = size - 1;
+		this.maxLength = maxLength;
+	}
+
+	/// Creates a table of 4096 strings of up to 64 characters.
+	public StringInterner() {
+		this(4096, 64);
+	}
+
+	/// Returns a string of the range `[start, end)` of `chars`, reusing a
+	/// previously returned one if possible.
+	public String intern(char[] chars, int start, int end) {
+		int length = end - start;
+		if (length > maxLength) {
+			return new String(chars, start, length);
+		}
+
+		// the same hash as `String.hashCode`, which strings cache
+		int hash = 0;
+		for (int i = start; i < end; i++)
+			hash = 31 * hash + chars[i];
+
+		int first = (hash ^ (hash >>> 16)) & mask;
+		for (int probe = 0; probe < PROBES; probe++) {
+			int slot = (first + probe) & mask;
+			String s = slots[slot];
+			if (s == null) {
+				s = new String(chars, start, length);
+				slots[slot] = s;
+				return s;
+			}
+			if (s.hashCode() == hash && equals(s, chars, start, length)) {
+				return s;
+			}
+		}
+
+		// the neighbourhood is full, replace its first slot and move the
+		// others one step towards it
+		String s = new String(chars, start, length);
+		for (int probe = 0; probe < PROBES - 1; probe++)
+			slots[(first + probe) & mask] = slots[(first + probe + 1) & mask];
+		slots[(first + PROBES - 1) & mask] = s;
+		return s;
+	}
+
+	private static boolean equals(String s, char[] chars, int start, int length) {
+		if (s.length() != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (s.charAt(i) != chars[start + i])
+				return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,414 @@
+package org.kvon;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/// A parsed document laid out flat, as a tape of `long` entries and a buffer
+/// holding all of its strings, instead of a tree of [Value]s. However large
+/// the document, it is held by two arrays, which the garbage collector
+/// doesn't have to trace.
+///
+/// ```
+/// Tape tape = Tape.parse(text);
+/// Tape.Cursor c = tape.cursor();
+/// if (c.toKey("database") && c.toKey("port"))
+///     port = c.asLong();
+/// ```
+///
+/// Every entry holds a tag in its top 8 bits and a payload in the others:
+///
+/// - `{` and `[` start an object or an array. The payload holds the index of
+///   the matching end in its low 32 bits, so a container is skipped in one
+///   step, and the number of children in the next 24 bits, saturated.
+/// - `}` and `]` end them. The payload is the index of the start.
+/// - `:` is a key, which precedes every value of an object, `"` a text and
+///   `0` a number literal. The payload is the offset of the characters in
+///   the buffer, which are preceded by their length in two characters.
+/// - `d` is a number given as a double. The next entry holds its bits.
+/// - `t`, `f` and `n` are true, false and null, without a payload.
+///
+/// The root is the object spanning the whole tape.
+public final class Tape {
+	static final long OBJECT = tag('{');
+	static final long OBJECT_END = tag('}');
+	static final long ARRAY = tag('[');
+	static final long ARRAY_END = tag(']');
+	static final long KEY = tag(':');
+	static final long TEXT = tag('"');
+	static final long NUMBER = tag('0');
+	static final long DOUBLE = tag('d');
+	static final long TRUE = tag('t');
+	static final long FALSE = tag('f');
+	static final long NULL = tag('n');
+
+	static final long PAYLOAD = (1L << 56) - 1;
+	static final int MAX_COUNT = (1 << 24) - 1;
+
+	private final long[] entries;
+	private final char[] chars;
+
+	Tape(long[] entries, char[] chars) {
+		this.entries = entries;
+		this.chars = chars;
+	}
+
+	/// Parses the string `s`.
+	public static Tape parse(String s) throws KvonException {
+		try {
+			// about one entry for every 8 characters, which holds a key or a value
+			return parse(new StringReader(s), new TapeBuilder(s.length() / 8 + 16, s.length() + 16));
+		} catch (IOException e) {
+			// reading from a string never fails
+			throw new RuntimeException(e);
+		}
+	}
+
+	/// Parses the characters of `reader`, which is not closed.
+	public static Tape parse(Reader reader) throws IOException, KvonException {
+		return parse(reader, new TapeBuilder(1024, 4096));
+	}
+
+	/// Parses the UTF-8 encoded file at `path`.
+	public static Tape parse(Path path) throws IOException, KvonException {
+		try (InputStream in = Files.newInputStream(path)) {
+			return parse(new InputStreamReader(in, StandardCharsets.UTF_8));
+		}
+	}
+
+	private static Tape parse(Reader reader, TapeBuilder builder) throws IOException, KvonException {
+		Parser.parse(reader, builder);
+		return builder.getResult();
+	}
+
+	/// Returns a cursor on the root object.
+	public Cursor cursor() {
+		return new Cursor();
+	}
+
+	/// Returns the number of entries of the tape.
+	public int getEntryCount() {
+		return entries.length;
+	}
+
+	/// Returns the number of characters of the string buffer.
+	public int getCharCount() {
+		return chars.length;
+	}
+
+	/// Builds the document as a tree of [Value]s.
+	public Value toValue() {
+		return cursor().toValue();
+	}
+
+	private static long tag(char c) {
+		return (long) c << 56;
+	}
+
+	/// Returns the index of the entry after the value at `i`.
+	private int after(int i) {
+		long entry = entries[i];
+		long tag = entry & ~PAYLOAD;
+		if (tag == OBJECT || tag == ARRAY)
+			return (int) entry + 1;
+		return tag == DOUBLE ? i + 2 : i + 1;
+	}
+
+	/// Returns the length of the string at `offset`.
+	private int length(int offset) {
+		return chars[offset] << 16 | chars[offset + 1];
+	}
+
+	private String string(int offset) {
+		return new String(chars, offset + 2, length(offset));
+	}
+
+	/// A position on the tape, at the root object or at one of the values
+	/// under it. Moving the cursor doesn't allocate, except when it has to
+	/// remember more containers than ever before. Cursors are independent of
+	/// each other, see `copy`.
+	public final class Cursor {
+		/// The index of the current value.
+		private int index;
+		/// The indices of the containers above the current value.
+		private int[] parents;
+		private int depth;
+
+		private Cursor() {
+			this.index = 0;
+			this.parents = new int[8];
+			this.depth = 0;
+		}
+
+		private long tag() {
+			return entries[index] & ~PAYLOAD;
+		}
+
+		public boolean isObject() {
+			return tag() == OBJECT;
+		}
+
+		public boolean isArray() {
+			return tag() == ARRAY;
+		}
+
+		public boolean isText() {
+			return tag() == TEXT;
+		}
+
+		public boolean isNumber() {
+			return tag() == NUMBER || tag() == DOUBLE;
+		}
+
+		public boolean isBoolean() {
+			return tag() == TRUE || tag() == FALSE;
+		}
+
+		public boolean isNull() {
+			return tag() == NULL;
+		}
+
+		/// Returns the number of containers above the current value, 0 at the
+		/// root.
+		public int getDepth() {
+			return depth;
+		}
+
+		/// Returns the number of keys of an object or elements of an array,
+		/// and 0 for primitives.
+		public int size() {
+			long entry = entries[index];
+			long tag = entry & ~PAYLOAD;
+			if (tag != OBJECT && tag != ARRAY)
+				return 0;
+
+			int count = (int) (entry >>> 32) & MAX_COUNT;
+			if (count < MAX_COUNT)
+				return count;
+
+			// too many to be stored
+			count = 0;
+			int end = (int) entry;
+			for (int i = index + 1; i < end; i = after(tag == OBJECT ? i + 1 : i))
+				count++;
+			return count;
+		}
+
+		/// Returns the key of the current value, or null if it isn't in an
+		/// object.
+		public String key() {
+			return hasKey() ? string((int) (entries[index - 1] & PAYLOAD)) : null;
+		}
+
+		/// Returns true if the current value is in an object under `key`,
+		/// without copying the key out of the tape.
+		public boolean keyEquals(CharSequence key) {
+			return hasKey() && matches((int) (entries[index - 1] & PAYLOAD), key);
+		}
+
+		private boolean hasKey() {
+			return depth > 0 && (entries[parents[depth - 1]] & ~PAYLOAD) == OBJECT;
+		}
+
+		/// Moves to the first key of an object or the first element of an
+		/// array. Returns false, without moving, if there is none.
+		public boolean toFirst() {
+			long entry = entries[index];
+			long tag = entry & ~PAYLOAD;
+			if ((tag != OBJECT && tag != ARRAY) || (int) entry == index + 1)
+				return false;
+
+			push(index);
+			index = tag == OBJECT ? index + 2 : index + 1;
+			return true;
+		}
+
+		/// Moves to the next value of the current container. Returns false,
+		/// without moving, if there is none.
+		public boolean toNext() {
+			if (depth == 0)
+				return false;
+
+			int next = after(index);
+			long tag = entries[next] & ~PAYLOAD;
+			if (tag == OBJECT_END || tag == ARRAY_END)
+				return false;
+
+			index = tag == KEY ? next + 1 : next;
+			return true;
+		}
+
+		/// Moves to the container of the current value. Returns false at the
+		/// root.
+		public boolean toParent() {
+			if (depth == 0)
+				return false;
+
+			index = parents[--depth];
+			return true;
+		}
+
+		/// Moves to the value of `key` of an object. Returns false, without
+		/// moving, if this isn't an object or it doesn't have the key. Like
+		/// in a [Value] tree, the last of repeated keys wins.
+		public boolean toKey(String key) {
+			long entry = entries[index];
+			if ((entry & ~PAYLOAD) != OBJECT)
+				return false;
+
+			int found = -1;
+			int end = (int) entry;
+			for (int i = index + 1; i < end; i = after(i + 1)) {
+				if (matches((int) (entries[i] & PAYLOAD), key))
+					found = i + 1;
+			}
+
+			if (found < 0)
+				return false;
+			push(index);
+			index = found;
+			return true;
+		}
+
+		/// Moves to the element at `i` of an array. Returns false, without
+		/// moving, if this isn't an array or it is too short.
+		public boolean toIndex(int i) {
+			long entry = entries[index];
+			if ((entry & ~PAYLOAD) != ARRAY || i < 0)
+				return false;
+
+			int end = (int) entry;
+			int at = index + 1;
+			for (int n = 0; n < i && at < end; n++)
+				at = after(at);
+			if (at >= end)
+				return false;
+
+			push(index);
+			index = at;
+			return true;
+		}
+
+		/// Returns the string, or null if this isn't a string.
+		public String asText() {
+			return isText() ? string((int) (entries[index] & PAYLOAD)) : null;
+		}
+
+		/// Returns true if this is a string equal to `s`, without copying it
+		/// out of the tape.
+		public boolean textEquals(CharSequence s) {
+			return isText() && matches((int) (entries[index] & PAYLOAD), s);
+		}
+
+		/// Returns the number. Throws if this isn't a number.
+		public double asDouble() {
+			if (tag() == DOUBLE)
+				return Double.longBitsToDouble(entries[index + 1]);
+			int offset = literal();
+			return Numbers.parseDouble(chars, offset + 2, offset + 2 + length(offset));
+		}
+
+		/// Returns the number truncated to a long, saturated to the range of
+		/// a long. Throws if this isn't a number.
+		public long asLong() {
+			if (tag() == DOUBLE)
+				return (long) Double.longBitsToDouble(entries[index + 1]);
+			int offset = literal();
+			return Numbers.parseLong(chars, offset + 2, offset + 2 + length(offset));
+		}
+
+		/// Returns the exact number, or null if this isn't a number.
+		public BigDecimal asBigDecimal() {
+			if (tag() == DOUBLE)
+				return new BigDecimal(Double.longBitsToDouble(entries[index + 1]));
+			return tag() == NUMBER ? new BigDecimal(string((int) (entries[index] & PAYLOAD))) : null;
+		}
+
+		/// Returns the boolean. Throws if this isn't a boolean.
+		public boolean asBoolean() {
+			if (!isBoolean())
+				throw new UnsupportedOperationException("not a boolean");
+			return tag() == TRUE;
+		}
+
+		/// Builds the current value as a [Value], with everything under it.
+		public Value toValue() {
+			return value(index);
+		}
+
+		/// Returns a cursor at the same position, which moves independently
+		/// of this one.
+		public Cursor copy() {
+			Cursor copy = new Cursor();
+			copy.index = index;
+			copy.parents = Arrays.copyOf(parents, parents.length);
+			copy.depth = depth;
+			return copy;
+		}
+
+		private int literal() {
+			if (tag() != NUMBER)
+				throw new UnsupportedOperationException("not a number");
+			return (int) (entries[index] & PAYLOAD);
+		}
+
+		private void push(int container) {
+			if (depth == parents.length)
+				parents = Arrays.copyOf(parents, depth * 2);
+			parents[depth++] = container;
+		}
+	}
+
+	private boolean matches(int offset, CharSequence s) {
+		int length = length(offset);
+		if (length != s.length())
+			return false;
+		for (int i = 0; i < length; i++) {
+			if (chars[offset + 2 + i] != s.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	private Value value(int i) {
+		long entry = entries[i];
+		long tag = entry & ~PAYLOAD;
+		int end = (int) entry;
+
+		if (tag == OBJECT) {
+			Value.FlatObj obj = new Value.FlatObj((int) (entry >>> 32) & MAX_COUNT);
+			for (int j = i + 1; j < end; j = after(j + 1))
+				obj.put(string((int) (entries[j] & PAYLOAD)), value(j + 1));
+			obj.trim();
+			return obj;
+		}
+		if (tag == ARRAY) {
+			ArrayList<Value> arr = new ArrayList<>((int) (entry >>> 32) & MAX_COUNT);
+			for (int j = i + 1; j < end; j = after(j))
+				arr.add(value(j));
+			return Value.arr(arr);
+		}
+
+		if (tag == TEXT)
+			return Value.text(string((int) (entry & PAYLOAD)));
+		if (tag == NUMBER)
+			return Value.numberLiteral(string((int) (entry & PAYLOAD)));
+		if (tag == DOUBLE) {
+			double d = Double.longBitsToDouble(entries[i + 1]);
+			return Double.isFinite(d)
+				? Value.numberLiteral(BigDecimal.valueOf(d).toPlainString())
+				: Value.number((float) d);
+		}
+		if (tag == TRUE || tag == FALSE)
+			return Value.bool(tag == TRUE);
+		return Value.none();
+	}
+}
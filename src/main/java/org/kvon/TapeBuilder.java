@@ -0,0 +1,147 @@
+package org.kvon;
+
+import java.util.Arrays;
+
+/// Writes the callbacks of a parser onto a [Tape]. The open containers are
+/// remembered by the indices of their starts, which are completed when they
+/// end.
+class TapeBuilder implements KvonHandler {
+	private long[] entries;
+	private int size;
+	private char[] chars;
+	private int length;
+	/// The indices of the open containers, and the number of their children.
+	private int[] open;
+	private int[] counts;
+	private int depth;
+	private Tape result;
+
+	TapeBuilder(int entries, int chars) {
+		this.entries = new long[Math.max(entries, 4)];
+		this.chars = new char[Math.max(chars, 16)];
+		this.open = new int[8];
+		this.counts = new int[8];
+	}
+
+	/// Returns the tape, or null if the root object hasn't ended yet.
+	Tape getResult() {
+		return result;
+	}
+
+	@Override
+	public void startObject() {
+		start(Tape.OBJECT);
+	}
+
+	@Override
+	public void endObject() {
+		end(Tape.OBJECT_END);
+	}
+
+	@Override
+	public void startArray() {
+		start(Tape.ARRAY);
+	}
+
+	@Override
+	public void endArray() {
+		end(Tape.ARRAY_END);
+	}
+
+	@Override
+	public void onKey(CharSequence key) {
+		add(Tape.KEY | string(key));
+	}
+
+	@Override
+	public void onText(CharSequence text) {
+		count();
+		add(Tape.TEXT | string(text));
+	}
+
+	@Override
+	public void onNumber(double number) {
+		count();
+		add(Tape.DOUBLE);
+		add(Double.doubleToRawLongBits(number));
+	}
+
+	@Override
+	public void onNumberLiteral(char[] chars, int start, int end) {
+		count();
+		add(Tape.NUMBER | string(chars, start, end));
+	}
+
+	@Override
+	public void onBoolean(boolean b) {
+		count();
+		add(b ? Tape.TRUE : Tape.FALSE);
+	}
+
+	@Override
+	public void onNull() {
+		count();
+		add(Tape.NULL);
+	}
+
+	private void start(long tag) {
+		count();
+		if (depth == open.length) {
+			open = Arrays.copyOf(open, depth * 2);
+			counts = Arrays.copyOf(counts, depth * 2);
+		}
+		open[depth] = size;
+		counts[depth] = 0;
+		depth++;
+		add(tag);
+	}
+
+	private void end(long tag) {
+		depth--;
+		int start = open[depth];
+		long count = Math.min(counts[depth], Tape.MAX_COUNT);
+		entries[start] |= count << 32 | size;
+		add(tag | start);
+
+		if (depth == 0) {
+			result = new Tape(Arrays.copyOf(entries, size), Arrays.copyOf(chars, length));
+		}
+	}
+
+	/// Counts a value of the innermost container.
+	private void count() {
+		if (depth > 0)
+			counts[depth - 1]++;
+	}
+
+	private void add(long entry) {
+		if (size == entries.length)
+			entries = Arrays.copyOf(entries, size * 2);
+		entries[size++] = entry;
+	}
+
+	/// Appends a string to the buffer, and returns its offset.
+	private long string(CharSequence s) {
+		int offset = reserve(s.length());
+		for (int i = 0; i < s.length(); i++)
+			chars[offset + 2 + i] = s.charAt(i);
+		return offset;
+	}
+
+	private long string(char[] source, int start, int end) {
+		int offset = reserve(end - start);
+		System.arraycopy(source, start, chars, offset + 2, end - start);
+		return offset;
+	}
+
+	/// Makes room for a string of `n` characters, preceded by its length.
+	private int reserve(int n) {
+		if (length + 2 + n > chars.length)
+			chars = Arrays.copyOf(chars, Math.max(chars.length * 2, length + 2 + n));
+		int offset = length;
+		chars[offset] = (char) (n >>> 16);
+		chars[offset + 1] = (char) n;
+		length += 2 + n;
+		return offset;
+	}
+}
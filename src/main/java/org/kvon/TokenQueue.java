@@ -0,0 +1,165 @@
+package org.kvon;
+
+import java.util.Arrays;
+
+/// A FIFO of the tokens produced by `Parser`. The tokens and their payloads
+/// are kept in parallel arrays which are reused once the queue is drained.
+/// The literals of numbers are copied into a shared buffer, which is reused
+/// as well, so no digits are lost and nothing is allocated for them.
+class TokenQueue implements KvonHandler {
+	private KvonToken[] types;
+	private String[] texts;
+	/// The payload of `NUMBER`, and of `BOOLEAN` as 1 or 0.
+	private double[] numbers;
+	/// The range of the literal of `NUMBER` in `literals`, empty if the
+	/// number was given as a double.
+	private int[] literalStarts;
+	private int[] literalEnds;
+	private int head;
+	private int tail;
+
+	/// The literals of the queued numbers.
+	char[] literals;
+	private int literalsLength;
+
+	/// The payload of the last polled token. Its literal is only valid until
+	/// the next token is pushed.
+	String text;
+	double number;
+	int literalStart;
+	int literalEnd;
+
+	TokenQueue() {
+		types = new KvonToken[16];
+		texts = new String[16];
+		numbers = new double[16];
+		literalStarts = new int[16];
+		literalEnds = new int[16];
+		literals = new char[64];
+		head = 0;
+		tail = 0;
+	}
+
+	boolean isEmpty() {
+		return head == tail;
+	}
+
+	@Override
+	public void startObject() {
+		push(KvonToken.START_OBJECT, null, 0);
+	}
+
+	@Override
+	public void endObject() {
+		push(KvonToken.END_OBJECT, null, 0);
+	}
+
+	@Override
+	public void startArray() {
+		push(KvonToken.START_ARRAY, null, 0);
+	}
+
+	@Override
+	public void endArray() {
+		push(KvonToken.END_ARRAY, null, 0);
+	}
+
+	@Override
+	public void onKey(CharSequence key) {
+		push(KvonToken.KEY, key.toString(), 0);
+	}
+
+	@Override
+	public void onText(CharSequence text) {
+		push(KvonToken.TEXT, text.toString(), 0);
+	}
+
+	@Override
+	public void onMultiLineText(CharSequence text) {
+		push(KvonToken.MULTILINE_TEXT, text.toString(), 0);
+	}
+
+	@Override
+	public void onNumber(double number) {
+		push(KvonToken.NUMBER, null, number);
+	}
+
+	@Override
+	public void onNumberLiteral(char[] chars, int start, int end) {
+		int n = end - start;
+		if (literalsLength + n > literals.length) {
+			literals = Arrays.copyOf(literals, Math.max(literals.length * 2, literalsLength + n));
+		}
+		System.arraycopy(chars, start, literals, literalsLength, n);
+		push(KvonToken.NUMBER, null, Numbers.parseDouble(chars, start, end));
+		literalStarts[tail - 1] = literalsLength;
+		literalEnds[tail - 1] = literalsLength + n;
+		literalsLength += n;
+	}
+
+	@Override
+	public void onBoolean(boolean b) {
+		push(KvonToken.BOOLEAN, null, b ? 1 : 0);
+	}
+
+	@Override
+	public void onNull() {
+		push(KvonToken.NULL, null, 0);
+	}
+
+	/// Removes the first token and exposes its payload through `text` and
+	/// `number`.
+	KvonToken poll() {
+		KvonToken type = types[head];
+		text = texts[head];
+		number = numbers[head];
+		literalStart = literalStarts[head];
+		literalEnd = literalEnds[head];
+		texts[head] = null;
+		head++;
+
+		// rewind once drained, so the arrays are reused from the start
+		if (head == tail) {
+			head = 0;
+			tail = 0;
+			literalsLength = 0;
+		}
+		return type;
+	}
+
+	private void push(KvonToken type, String text, double number) {
+		if (tail == types.length) {
+			makeRoom();
+		}
+		types[tail] = type;
+		texts[tail] = text;
+		numbers[tail] = number;
+		literalStarts[tail] = 0;
+		literalEnds[tail] = 0;
+		tail++;
+	}
+
+	private void makeRoom() {
+		int size = tail - head;
+		int capacity = size * 2 > types.length ? types.length * 2 : types.length;
+
+		KvonToken[] newTypes = new KvonToken[capacity];
+		String[] newTexts = new String[capacity];
+		double[] newNumbers = new double[capacity];
+		int[] newLiteralStarts = new int[capacity];
+		int[] newLiteralEnds = new int[capacity];
+		System.arraycopy(types, head, newTypes, 0, size);
+		System.arraycopy(texts, head, newTexts, 0, size);
+		System.arraycopy(numbers, head, newNumbers, 0, size);
+		System.arraycopy(literalStarts, head, newLiteralStarts, 0, size);
+		System.arraycopy(literalEnds, head, newLiteralEnds, 0, size);
+
+		types = newTypes;
+		texts = newTexts;
+		numbers = newNumbers;
+		literalStarts = newLiteralStarts;
+		literalEnds = newLiteralEnds;
+		head = 0;
+		tail = size;
+	}
+}
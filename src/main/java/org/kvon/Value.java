@@ -1,7 +1,11 @@
 package org.kvon;
 
+import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
 
 public interface Value {
 	class Primitive implements Value {
@@ -20,6 +24,16 @@ public interface Value {
 		public PrimitiveValue getPrimitive() {
 			return primitive;
 		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Value && Value.equal(this, (Value) o);
+		}
+
+		@Override
+		public int hashCode() {
+			return Fingerprints.hashCode(this);
+		}
 	}
 
 	class Obj implements Value {
@@ -35,9 +49,30 @@ public interface Value {
 		}
 
 		@Override
+		@Deprecated
 		public HashMap<String, Value> getObject() {
 			return obj;
 		}
+
+		@Override
+		public Value get(String key) {
+			return obj.get(key);
+		}
+
+		@Override
+		public int size() {
+			return obj.size();
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Value && Value.equal(this, (Value) o);
+		}
+
+		@Override
+		public int hashCode() {
+			return Fingerprints.hashCode(this);
+		}
 	}
 
 	class Arr implements Value {
@@ -56,6 +91,476 @@ public interface Value {
 		public ArrayList<Value> getArray() {
 			return arr;
 		}
+
+		@Override
+		public Value get(int index) {
+			return arr.get(index);
+		}
+
+		@Override
+		public int size() {
+			return arr.size();
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Value && Value.equal(this, (Value) o);
+		}
+
+		@Override
+		public int hashCode() {
+			return Fingerprints.hashCode(this);
+		}
+	}
+
+	/// An array which can't be changed, see `Value.freeze`. `getArray` returns
+	/// a copy of the elements.
+	final class FrozenArr implements Value {
+		private final Value[] elements;
+
+		FrozenArr(Value[] elements) {
+			this.elements = elements;
+		}
+
+		@Override
+		public boolean isArray() {
+			return true;
+		}
+
+		@Override
+		public ArrayList<Value> getArray() {
+			return new ArrayList<>(Arrays.asList(elements));
+		}
+
+		@Override
+		public Value get(int index) {
+			return elements[index];
+		}
+
+		@Override
+		public int size() {
+			return elements.length;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Value && Value.equal(this, (Value) o);
+		}
+
+		@Override
+		public int hashCode() {
+			return Fingerprints.hashCode(this);
+		}
+	}
+
+	/// An object which keeps its entries in two flat arrays, in insertion
+	/// order. Small objects are searched linearly, larger ones through an
+	/// index with linear probing.
+	///
+	/// `getObject` is only kept for compatibility: it copies the entries into
+	/// a `HashMap` which backs the object from then on, so changes made through
+	/// the map are seen by all the other accessors. Since that first call
+	/// changes the object, an object which isn't frozen mustn't be read from
+	/// several threads unless `getObject` is never called on it.
+	///
+	/// A frozen object, see `Value.freeze`, can't be changed: `put` and
+	/// `remove` throw. Its fingerprint, which `hashCode`, `Value.equal` and
+	/// [Patch] use, is computed once and kept. The fingerprint of an object
+	/// which isn't frozen is computed on every use, since an object doesn't
+	/// know the objects holding it, which changing it in place would leave
+	/// stale.
+	class FlatObj implements Value {
+		/// Objects with up to this many keys have no index.
+		private static final int LINEAR_MAX = 8;
+
+		private String[] keys;
+		private Value[] values;
+		private int size;
+		/// Positions + 1 of the keys by their hash, 0 marks an empty slot. The
+		/// length is a power of two at least twice the size.
+		private int[] index;
+		/// The entries once `getObject` has been called, which replace the
+		/// arrays.
+		private HashMap<String, Value> map;
+		/// 0 until computed, and only kept once frozen.
+		private volatile long fingerprint;
+		private boolean frozen;
+
+		public FlatObj() {
+			this(4);
+		}
+
+		public FlatObj(int capacity) {
+			keys = new String[Math.max(capacity, 1)];
+			values = new Value[keys.length];
+			size = 0;
+		}
+
+		@Override
+		public boolean isObject() {
+			return true;
+		}
+
+		/// Returns the entries as a map which backs the object from now on, or a
+		/// copy of them if the object is frozen.
+		@Override
+		@Deprecated
+		public HashMap<String, Value> getObject() {
+			if (frozen) {
+				HashMap<String, Value> copy = new HashMap<>();
+				for (int i = 0; i < size; i++)
+					copy.put(keys[i], values[i]);
+				return copy;
+			}
+
+			if (map == null) {
+				map = new HashMap<>();
+				for (int i = 0; i < size; i++)
+					map.put(keys[i], values[i]);
+				keys = null;
+				values = null;
+				index = null;
+				size = 0;
+			}
+			return map;
+		}
+
+		@Override
+		public Value get(String key) {
+			if (map != null) {
+				return map.get(key);
+			}
+
+			int i = find(key);
+			return i >= 0 ? values[i] : null;
+		}
+
+		@Override
+		public int size() {
+			return map != null ? map.size() : size;
+		}
+
+		@Override
+		public void forEachField(BiConsumer<String, Value> action) {
+			if (map != null) {
+				map.forEach(action);
+				return;
+			}
+
+			for (int i = 0; i < size; i++)
+				action.accept(keys[i], values[i]);
+		}
+
+		/// Sets the value of `key`, replacing the previous value if there is
+		/// one.
+		public void put(String key, Value value) {
+			checkNotFrozen();
+			if (map != null) {
+				map.put(key, value);
+				return;
+			}
+
+			int i = find(key);
+			if (i >= 0) {
+				values[i] = value;
+				return;
+			}
+
+			if (size == keys.length) {
+				keys = Arrays.copyOf(keys, size * 2);
+				values = Arrays.copyOf(values, size * 2);
+			}
+			keys[size] = key;
+			values[size] = value;
+			size++;
+
+			if (size > LINEAR_MAX) {
+				if (index == null || size * 2 > index.length) {
+					rebuildIndex();
+				} else {
+					insertIntoIndex(size - 1);
+				}
+			}
+		}
+
+		/// Removes `key` and returns its value, or null if there is no such key.
+		/// The keys after it move up, so the order is kept.
+		public Value remove(String key) {
+			checkNotFrozen();
+			if (map != null) {
+				return map.remove(key);
+			}
+
+			int i = find(key);
+			if (i < 0) {
+				return null;
+			}
+
+			Value value = values[i];
+			System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+			System.arraycopy(values, i + 1, values, i, size - i - 1);
+			size--;
+			keys[size] = null;
+			values[size] = null;
+
+			if (size > LINEAR_MAX) {
+				rebuildIndex();
+			} else {
+				index = null;
+			}
+			return value;
+		}
+
+		/// Releases the unused capacity, once no more keys are expected.
+		public void trim() {
+			if (!frozen && map == null && size < keys.length) {
+				keys = Arrays.copyOf(keys, Math.max(size, 1));
+				values = Arrays.copyOf(values, keys.length);
+			}
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Value && Value.equal(this, (Value) o);
+		}
+
+		@Override
+		public int hashCode() {
+			return Fingerprints.hashCode(this);
+		}
+
+		/// Returns the fingerprint, which is kept once the object is frozen,
+		/// or 0 if it isn't.
+		long frozenFingerprint() {
+			if (!frozen)
+				return 0;
+			long fp = fingerprint;
+			if (fp == 0) {
+				fp = Fingerprints.object(this, null);
+				fingerprint = fp;
+			}
+			return fp;
+		}
+
+		public boolean isFrozen() {
+			return frozen;
+		}
+
+		/// Moves the entries of the map given out by `getObject` back into
+		/// the arrays, which the map no longer backs.
+		void unmap() {
+			if (map == null) {
+				return;
+			}
+
+			HashMap<String, Value> entries = map;
+			map = null;
+			keys = new String[Math.max(entries.size(), 1)];
+			values = new Value[keys.length];
+			entries.forEach(this::put);
+		}
+
+		/// Freezes the object, which must not be backed by a map.
+		void freeze() {
+			trim();
+			frozen = true;
+		}
+
+		private void checkNotFrozen() {
+			if (frozen)
+				throw new UnsupportedOperationException("frozen object");
+		}
+
+		private int find(String key) {
+			if (index == null) {
+				for (int i = 0; i < size; i++) {
+					if (keys[i].equals(key))
+						return i;
+				}
+				return -1;
+			}
+
+			int mask = index.length - 1;
+			for (int slot = hash(key) & mask; index[slot] != 0; slot = (slot + 1) & mask) {
+				int i = index[slot] - 1;
+				if (keys[i].equals(key))
+					return i;
+			}
+			return -1;
+		}
+
+		private void rebuildIndex() {
+			int capacity = 16;
+			while (capacity < size * 4)
+				capacity <<= 1;
+
+			index = new int[capacity];
+			for (int i = 0; i < size; i++)
+				insertIntoIndex(i);
+		}
+
+		private void insertIntoIndex(int i) {
+			int mask = index.length - 1;
+			int slot = hash(keys[i]) & mask;
+			while (index[slot] != 0)
+				slot = (slot + 1) & mask;
+			index[slot] = i + 1;
+		}
+
+		private static int hash(String key) {
+			int h = key.hashCode();
+			return h ^ (h >>> 16);
+		}
+	}
+
+	/// A string which is both the value and its primitive, so it costs a
+	/// single object.
+	final class TextValue implements Value, PrimitiveValue {
+		public final String text;
+
+		public TextValue(String text) {
+			this.text = text;
+		}
+
+		@Override
+		public boolean isPrimitive() {
+			return true;
+		}
+
+		@Override
+		public PrimitiveValue getPrimitive() {
+			return this;
+		}
+
+		@Override
+		public boolean isText() {
+			return true;
+		}
+
+		@Override
+		public String getText() {
+			return text;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (o instanceof Value)
+				return Value.equal(this, (Value) o);
+			return o instanceof PrimitiveValue && PrimitiveValue.equal(this, (PrimitiveValue) o);
+		}
+
+		@Override
+		public int hashCode() {
+			return Fingerprints.hashCode((Value) this);
+		}
+	}
+
+	/// A number which is both the value and its primitive. Like its super
+	/// class, it keeps the literal and converts it on demand.
+	final class NumberValue extends PrimitiveValue.NumberLiteral implements Value {
+		public NumberValue(String source) {
+			super(source);
+		}
+
+		@Override
+		public boolean isPrimitive() {
+			return true;
+		}
+
+		@Override
+		public PrimitiveValue getPrimitive() {
+			return this;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (o instanceof Value)
+				return Value.equal(this, (Value) o);
+			return o instanceof PrimitiveValue && PrimitiveValue.equal(this, (PrimitiveValue) o);
+		}
+
+		@Override
+		public int hashCode() {
+			return Fingerprints.hashCode((Value) this);
+		}
+	}
+
+	/// The booleans, shared by all the documents.
+	final class BooleanValue implements Value, PrimitiveValue {
+		public static final BooleanValue TRUE = new BooleanValue(true);
+		public static final BooleanValue FALSE = new BooleanValue(false);
+
+		private final boolean b;
+
+		private BooleanValue(boolean b) {
+			this.b = b;
+		}
+
+		@Override
+		public boolean isPrimitive() {
+			return true;
+		}
+
+		@Override
+		public PrimitiveValue getPrimitive() {
+			return this;
+		}
+
+		@Override
+		public boolean isBoolean() {
+			return true;
+		}
+
+		@Override
+		public java.lang.Boolean getBoolean() {
+			return b;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (o instanceof Value)
+				return Value.equal(this, (Value) o);
+			return o instanceof PrimitiveValue && PrimitiveValue.equal(this, (PrimitiveValue) o);
+		}
+
+		@Override
+		public int hashCode() {
+			return Fingerprints.hashCode((Value) this);
+		}
+	}
+
+	/// The null, shared by all the documents.
+	final class NullValue implements Value, PrimitiveValue {
+		public static final NullValue NULL = new NullValue();
+
+		private NullValue() { }
+
+		@Override
+		public boolean isPrimitive() {
+			return true;
+		}
+
+		@Override
+		public PrimitiveValue getPrimitive() {
+			return this;
+		}
+
+		@Override
+		public boolean isNone() {
+			return true;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (o instanceof Value)
+				return Value.equal(this, (Value) o);
+			return o instanceof PrimitiveValue && PrimitiveValue.equal(this, (PrimitiveValue) o);
+		}
+
+		@Override
+		public int hashCode() {
+			return Fingerprints.hashCode((Value) this);
+		}
 	}
 
 	default boolean isPrimitive() {
@@ -74,6 +579,10 @@ public interface Value {
 		return null;
 	}
 
+	/// Returns the entries of an object, or null if this isn't an object.
+	/// Whether changes to the map are seen by the object depends on the
+	/// class, so `get`, `forEachField` and `size` should be used instead.
+	@Deprecated
 	default HashMap<String, Value> getObject() {
 		return null;
 	}
@@ -82,6 +591,155 @@ public interface Value {
 		return null;
 	}
 
+	/// Returns the value of `key`, or null if this isn't an object or it
+	/// doesn't have the key.
+	default Value get(String key) {
+		HashMap<String, Value> obj = getObject();
+		return obj != null ? obj.get(key) : null;
+	}
+
+	/// Returns the element at `index`, or null if this isn't an array.
+	default Value get(int index) {
+		ArrayList<Value> arr = getArray();
+		return arr != null ? arr.get(index) : null;
+	}
+
+	/// Returns the number of keys of an object or elements of an array, and 0
+	/// for primitives.
+	default int size() {
+		if (isObject())
+			return getObject().size();
+		if (isArray())
+			return getArray().size();
+		return 0;
+	}
+
+	/// Calls `action` with every key and value of an object. Does nothing if
+	/// this isn't an object.
+	default void forEachField(BiConsumer<String, Value> action) {
+		HashMap<String, Value> obj = getObject();
+		if (obj != null) {
+			for (Map.Entry<String, Value> entry: obj.entrySet())
+				action.accept(entry.getKey(), entry.getValue());
+		}
+	}
+
+	default boolean isNull() {
+		return isPrimitive() && getPrimitive().isNone();
+	}
+
+	/// Returns the number without boxing it. Throws if this isn't a number.
+	default double asDouble() {
+		if (!isPrimitive())
+			throw new UnsupportedOperationException("not a number");
+		return getPrimitive().getDouble();
+	}
+
+	/// Returns the number truncated to a long. Numbers beyond the range of a
+	/// long saturate to `Long.MIN_VALUE` or `Long.MAX_VALUE`, like the cast
+	/// of a double. Throws if this isn't a number.
+	default long asLong() {
+		if (!isPrimitive())
+			throw new UnsupportedOperationException("not a number");
+		return getPrimitive().getLong();
+	}
+
+	/// Returns the exact number, or null if this isn't a number.
+	default BigDecimal asBigDecimal() {
+		return isPrimitive() ? getPrimitive().getBigDecimal() : null;
+	}
+
+	/// Returns the boolean. Throws if this isn't a boolean.
+	default boolean asBoolean() {
+		java.lang.Boolean b = isPrimitive() ? getPrimitive().getBoolean() : null;
+		if (b == null)
+			throw new UnsupportedOperationException("not a boolean");
+		return b;
+	}
+
+	/// Returns the string, or null if this isn't a string.
+	default String asText() {
+		return isPrimitive() ? getPrimitive().getText() : null;
+	}
+
+	/// Returns true if `a` and `b` have the same structure and the same
+	/// primitives, whatever classes they are made of. Objects are compared
+	/// regardless of the order of their keys, and numbers by their exact
+	/// values, so `1` equals `1.00`.
+	static boolean equal(Value a, Value b) {
+		if (a == b) {
+			return true;
+		}
+		if (a == null || b == null) {
+			return false;
+		}
+
+		if (a.isObject()) {
+			if (!b.isObject() || a.size() != b.size()) {
+				return false;
+			}
+			// only frozen trees can be trusted to keep their fingerprints
+			if (a instanceof FlatObj && b instanceof FlatObj && ((FlatObj) a).isFrozen() && ((FlatObj) b).isFrozen()
+				&& ((FlatObj) a).frozenFingerprint() != ((FlatObj) b).frozenFingerprint()) {
+				return false;
+			}
+
+			boolean[] same = {true};
+			a.forEachField((key, value) -> {
+				if (same[0])
+					same[0] = equal(value, b.get(key));
+			});
+			return same[0];
+		}
+
+		if (a.isArray()) {
+			if (!b.isArray() || a.size() != b.size()) {
+				return false;
+			}
+			for (int i = 0; i < a.size(); i++) {
+				if (!equal(a.get(i), b.get(i)))
+					return false;
+			}
+			return true;
+		}
+
+		return a.isPrimitive() && b.isPrimitive() && PrimitiveValue.equal(a.getPrimitive(), b.getPrimitive());
+	}
+
+	/// Makes the tree `v` immutable, so it can be shared between threads and
+	/// callers, and returns it. Its objects are frozen in place, or copied if
+	/// they aren't [FlatObj]s in the first place, and its arrays are replaced
+	/// by immutable copies. A map given out by `getObject` no longer backs
+	/// its object once frozen.
+	static Value freeze(Value v) {
+		if (v instanceof FlatObj && ((FlatObj) v).isFrozen() || v instanceof FrozenArr) {
+			return v;
+		}
+
+		if (v.isObject()) {
+			FlatObj obj;
+			if (v instanceof FlatObj) {
+				obj = (FlatObj) v;
+				obj.unmap();
+				for (int i = 0; i < obj.size; i++)
+					obj.values[i] = freeze(obj.values[i]);
+			} else {
+				obj = new FlatObj(v.size());
+				v.forEachField((key, value) -> obj.put(key, freeze(value)));
+			}
+			obj.freeze();
+			return obj;
+		}
+
+		if (v.isArray()) {
+			Value[] elements = new Value[v.size()];
+			for (int i = 0; i < elements.length; i++)
+				elements[i] = freeze(v.get(i));
+			return new FrozenArr(elements);
+		}
+		return v;
+	}
+
 	static Value primitive(PrimitiveValue primitive) {
 		return new Primitive(primitive);
 	}
@@ -98,21 +756,26 @@ public interface Value {
 		return primitive(new PrimitiveValue.Number(number));
 	}
 
+	/// A number given as its literal, e.g. `-12.50`.
+	static Value numberLiteral(String literal) {
+		return new NumberValue(literal);
+	}
+
 	static Value text(String s) {
-		return primitive(new PrimitiveValue.Text(s));
+		return new TextValue(s);
 	}
 
 	static Value bool(boolean b) {
-		return primitive(new PrimitiveValue.Boolean(b));
+		return b ? BooleanValue.TRUE : BooleanValue.FALSE;
 	}
 
 	static Value none() {
-		return primitive(new PrimitiveValue.None());
+		return NullValue.NULL;
 	}
 
 	static Value keyValuePair(String key, Value value) {
-		HashMap<String, Value> m = new HashMap<>();
-		m.put(key, value);
-		return obj(m);
+		FlatObj obj = new FlatObj(1);
+		obj.put(key, value);
+		return obj;
 	}
 }
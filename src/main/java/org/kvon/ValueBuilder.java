@@ -0,0 +1,131 @@
+package org.kvon;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/// Builds a [Value] tree out of the callbacks of a parser. Objects are built
+/// as [Value.FlatObj]s and scalars as the compact values of [Value], so a
+/// scalar costs a single object and booleans and nulls cost nothing.
+class ValueBuilder implements KvonHandler {
+	/// The open objects and arrays, and the key each of them expects next.
+	private Value[] containers;
+	private String[] pendingKeys;
+	private int depth;
+	private Value result;
+
+	ValueBuilder() {
+		containers = new Value[8];
+		pendingKeys = new String[8];
+		depth = 0;
+		result = null;
+	}
+
+	/// Drops the open containers and the result, to build another document.
+	void reset() {
+		Arrays.fill(containers, 0, depth, null);
+		Arrays.fill(pendingKeys, 0, depth, null);
+		depth = 0;
+		result = null;
+	}
+
+	/// Returns the root object, or null if it hasn't ended yet.
+	Value getResult() {
+		return result;
+	}
+
+	@Override
+	public void startObject() {
+		open(new Value.FlatObj());
+	}
+
+	@Override
+	public void endObject() {
+		Value.FlatObj obj = (Value.FlatObj) close();
+		obj.trim();
+		push(obj);
+	}
+
+	@Override
+	public void startArray() {
+		open(Value.arr(new ArrayList<>()));
+	}
+
+	@Override
+	public void endArray() {
+		Value arr = close();
+		arr.getArray().trimToSize();
+		push(arr);
+	}
+
+	@Override
+	public void onKey(CharSequence key) {
+		pendingKeys[depth - 1] = key.toString();
+	}
+
+	@Override
+	public void onText(CharSequence text) {
+		push(Value.text(text.toString()));
+	}
+
+	@Override
+	public void onNumber(double number) {
+		// the parser reports literals, so this is only reached when the
+		// builder is driven by hand
+		if (Double.isFinite(number)) {
+			push(Value.numberLiteral(BigDecimal.valueOf(number).toPlainString()));
+		} else {
+			push(Value.number((float) number));
+		}
+	}
+
+	@Override
+	public void onNumberLiteral(char[] chars, int start, int end) {
+		push(Value.numberLiteral(new String(chars, start, end - start)));
+	}
+
+	@Override
+	public void onBoolean(boolean b) {
+		push(Value.bool(b));
+	}
+
+	@Override
+	public void onNull() {
+		push(Value.none());
+	}
+
+	private void open(Value container) {
+		if (depth == containers.length) {
+			containers = Arrays.copyOf(containers, depth * 2);
+			pendingKeys = Arrays.copyOf(pendingKeys, depth * 2);
+		}
+		containers[depth] = container;
+		pendingKeys[depth] = "";
+		depth++;
+	}
+
+	private Value close() {
+		depth--;
+		Value container = containers[depth];
+		containers[depth] = null;
+		pendingKeys[depth] = null;
+		return container;
+	}
+
+	/// Adds `value` to the top container, or makes it the result if there is
+	/// none.
+	private void push(Value value) {
+		if (depth == 0) {
+			result = value;
+			return;
+		}
+
+		Value top = containers[depth - 1];
+		if (top.isArray()) {
+			top.getArray().add(value);
+		} else {
+			((Value.FlatObj) top).put(pendingKeys[depth - 1], value);
+			pendingKeys[depth - 1] = "";
+		}
+	}
+}
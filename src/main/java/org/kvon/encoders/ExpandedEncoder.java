@@ -1,292 +1,374 @@
 package org.kvon.encoders;
 
 import org.kvon.Indention;
+import org.kvon.KvonMetrics;
 import org.kvon.PrimitiveValue;
 import org.kvon.Value;
 
-import java.util.*;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 /// Encodes a [value::Value] into a string. This implementation will prefer to
 /// expand arrays and strings to multiple lines to improve readability.
+///
+/// The value is encoded in a single depth first pass which writes straight to
+/// the output, so apart from the recursion no memory is needed on top of the
+/// value and the output itself.
+///
+/// `encodeParallel` encodes objects and multi-line arrays with many entries
+/// on a [ForkJoinPool]: their entries are cut into ranges which are encoded
+/// into buffers of their own, and the buffers are appended in order.
 public class ExpandedEncoder {
+	/// Objects and multi-line arrays with fewer entries are encoded on the
+	/// current thread, even when encoding in parallel.
+	private static final int PARALLEL_THRESHOLD = 256;
+	/// The number of entries encoded into one buffer.
+	private static final int PARALLEL_CHUNK = 64;
+
+	/// Receives the statistics of the encoded values, or null. See
+	/// `setMetrics`.
+	private static volatile KvonMetrics metrics;
+
+	private final Appendable out;
+	private final String indent_str;
+	/// Whether large values are split over the pool the encoder runs on.
+	private final boolean parallel;
+	/// Whether a line has been started. Every started line is terminated by a
+	/// `\n`, either before the next line starts or once encoding is done.
+	private boolean has_line;
+
+	private ExpandedEncoder(Appendable out, String indent_str, boolean parallel) {
+		this.out = out;
+		this.indent_str = indent_str;
+		this.parallel = parallel;
+		this.has_line = false;
+	}
 
-	private interface EncodedValue {
-		static EncodedValue mls_from_str(String s) {
-			return new MultiLineString(s);
-		}
+	/// Encodes a value into `out`, for `measure`.
+	private interface Encoding {
+		void encode(Appendable out) throws IOException;
+	}
 
-		static EncodedValue inlined(String s) {
-			return new Inlined(s);
-		}
+	/// Counts the characters and lines written, and hashes them, for the
+	/// metrics.
+	private static class CountingAppendable implements Appendable {
+		private final Appendable out;
+		int lines;
+		long characters;
+		long hash = KvonMetrics.HASH_OFFSET;
 
-		static EncodedValue obj(HashMap<String, EncodedValue> values) {
-			return new Obj(values);
+		CountingAppendable(Appendable out) {
+			this.out = out;
 		}
 
-		static EncodedValue multi_line_array(ArrayList<EncodedValue> values) {
-			return new MultiLineArray(values);
+		private void count(char c) {
+			characters++;
+			if (c == '\n')
+				lines++;
+			hash = hash * KvonMetrics.HASH_PRIME + c;
 		}
 
-		static EncodedValue inline_array(ArrayList<EncodedValue> values) {
-			return new InlinedArray(values);
+		@Override
+		public Appendable append(CharSequence csq) throws IOException {
+			return append(csq, 0, csq.length());
 		}
 
-		static EncodedValue fromPrimitive(PrimitiveValue p) {
-			if (p.isNumber()) {
-				return inlined("" + p.getNumber());
-			}
-
-			if (p.isBoolean()) {
-				return inlined("" + p.getBoolean());
-			}
-
-			if (p.isText()) {
-				String s = p.getText();
-				if (should_be_multi_line(s)) {
-					return mls_from_str(s);
-				} else {
-					return inlined("'" + s + "'");
-				}
-			}
-
-			if (p.isNone()) {
-				return inlined("null");
-			}
+		@Override
+		public Appendable append(CharSequence csq, int start, int end) throws IOException {
+			for (int i = start; i < end; i++)
+				count(csq.charAt(i));
+			out.append(csq, start, end);
+			return this;
+		}
 
-			throw new RuntimeException();
+		@Override
+		public Appendable append(char c) throws IOException {
+			count(c);
+			out.append(c);
+			return this;
 		}
+	}
+
+	/// Counts the values of a tree, for the metrics.
+	private static class Tally {
+		long nodes;
+		int max_depth;
+		long multi_line_characters;
 
-		static EncodedValue fromValue(Value v) {
+		void count(Value v, int depth) {
+			nodes++;
 			if (v.isPrimitive()) {
 				PrimitiveValue p = v.getPrimitive();
-				return fromPrimitive(p);
-			}
-
-			if(v.isArray()) {
-				// encode all values
-				ArrayList<EncodedValue> encoded = new ArrayList<>();
-				for (Value kvonValue: v.getArray())
-					encoded.add(fromValue(kvonValue));
-
-				// check if at least one of the variables is not inlined
-				boolean has_non_inlined = false;
-				for (EncodedValue encodedValue: encoded) {
-					if (!encodedValue.is_inlined()) {
-						has_non_inlined = true;
-						break;
-					}
-				}
-
-				// if there is a non inlined variable, then create a multi
-				// line array, otherwise create an inlined array
-				if (has_non_inlined) {
-					return multi_line_array(encoded);
-				} else {
-					return inline_array(encoded);
-				}
+				if (p.isText() && should_be_multi_line(p.getText()))
+					multi_line_characters += p.getText().length();
+				return;
 			}
 
-			if (v.isObject()){
-				// encode all values
-				HashMap<String, EncodedValue> encoded = new HashMap<>();
-				for (Map.Entry<String, Value> entry: v.getObject().entrySet()) {
-					String key = entry.getKey();
-					Value value = entry.getValue();
-					encoded.put(key, fromValue(value));
-				}
-
-				// construct object
-				return obj(encoded);
+			max_depth = Math.max(max_depth, depth);
+			if (v.isObject()) {
+				v.forEachField((key, value) -> count(value, depth + 1));
+			} else if (v.isArray()) {
+				for (int i = 0; i < v.size(); i++)
+					count(v.get(i), depth + 1);
 			}
-
-			throw new RuntimeException();
 		}
-
-		boolean is_multi_line_array();
-
-		boolean is_inlined();
 	}
 
+	/// Encodes the entry `i` of a value split over several encoders.
+	private interface EntryEncoder {
+		void encode(ExpandedEncoder encoder, int i) throws IOException;
+	}
 
-	private static class Inlined implements EncodedValue {
-		String s;
-
-		public Inlined(String s) {
-			this.s = s;
-		}
-
-		@Override
-		public boolean is_multi_line_array() {
-			return false;
+	/// Encodes the entries `[from, to)` into a buffer of its own.
+	private static class RangeTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		final StringBuilder out;
+		private final ExpandedEncoder encoder;
+		private final EntryEncoder entries;
+		private final int from;
+		private final int to;
+
+		RangeTask(String indent_str, boolean has_line, EntryEncoder entries, int from, int to) {
+			this.out = new StringBuilder();
+			this.encoder = new ExpandedEncoder(out, indent_str, true);
+			this.encoder.has_line = has_line;
+			this.entries = entries;
+			this.from = from;
+			this.to = to;
 		}
 
 		@Override
-		public boolean is_inlined() {
-			return true;
+		protected void compute() {
+			try {
+				for (int i = from; i < to; i++) {
+					entries.encode(encoder, i);
+				}
+			} catch (IOException e) {
+				// appending to a string builder never fails
+				throw new RuntimeException(e);
+			}
 		}
 	}
 
-	private static class MultiLineString implements EncodedValue {
-		ArrayDeque<String> lines;
-
-		public MultiLineString(String s) {
-			lines = new ArrayDeque<>();
-			Collections.addAll(lines, s.split("\n\r?"));
-		}
+	private static boolean should_be_multi_line(String s) {
+		return s.contains("'") | s.contains("\"") | s.contains("\n");
+	}
 
-		@Override
-		public boolean is_multi_line_array() {
+	/// Returns true if the value is encoded on the line it starts at.
+	private static boolean is_inlined(Value v) {
+		if (!v.isPrimitive()) {
 			return false;
 		}
 
-		@Override
-		public boolean is_inlined() {
-			return false;
-		}
+		PrimitiveValue p = v.getPrimitive();
+		return !p.isText() || !should_be_multi_line(p.getText());
 	}
 
-	private static class Obj implements EncodedValue {
-		HashMap<String, EncodedValue> values;
-
-		public Obj(HashMap<String, EncodedValue> values) {
-			this.values = values;
-		}
-
-		@Override
-		public boolean is_multi_line_array() {
+	/// Returns true if the array has to be spread over multiple lines, which
+	/// is the case if any of its values isn't inlined.
+	private static boolean is_multi_line_array(Value v) {
+		if (!v.isArray()) {
 			return false;
 		}
 
-		@Override
-		public boolean is_inlined() {
-			return false;
+		int size = v.size();
+		for (int i = 0; i < size; i++) {
+			if (!is_inlined(v.get(i))) {
+				return true;
+			}
 		}
+		return false;
 	}
 
-	private static class InlinedArray implements EncodedValue {
-		ArrayList<EncodedValue> values;
-
-		public InlinedArray(ArrayList<EncodedValue> values) {
-			this.values = values;
+	private static String encode_primitive(PrimitiveValue p) {
+		if (p instanceof PrimitiveValue.NumberLiteral) {
+			// keep all the digits the number was parsed with
+			return ((PrimitiveValue.NumberLiteral) p).source;
 		}
 
-		@Override
-		public boolean is_multi_line_array() {
-			return false;
+		if (p.isNumber()) {
+			return "" + p.getNumber();
 		}
 
-		@Override
-		public boolean is_inlined() {
-			return false;
+		if (p.isBoolean()) {
+			return "" + p.getBoolean();
 		}
-	}
 
-	private static class MultiLineArray implements EncodedValue {
-		ArrayList<EncodedValue> values;
-
-		public MultiLineArray(ArrayList<EncodedValue> values) {
-			this.values = values;
+		if (p.isText()) {
+			return "'" + p.getText() + "'";
 		}
 
-		@Override
-		public boolean is_multi_line_array() {
-			return true;
+		if (p.isNone()) {
+			return "null";
 		}
 
-		@Override
-		public boolean is_inlined() {
-			return false;
-		}
+		throw new RuntimeException();
 	}
 
-	private static boolean should_be_multi_line(String s) {
-		return s.contains("'") | s.contains("\"") | s.contains("\n");
-	}
+	private void new_line(int indent) throws IOException {
+		if (has_line) {
+			out.append('\n');
+		}
+		has_line = true;
 
-	private static void encode_indent(ArrayDeque<StringBuilder> lines, String indent_str, int indent) {
 		for (int i = 0; i < indent; ++i) {
-			lines.getLast().append(indent_str);
+			out.append(indent_str);
 		}
 	}
 
-	private static void encoded_to_lines(String indent_str, ArrayDeque<StringBuilder> lines, int indent, EncodedValue v) {
-		if (v.is_inlined()) {
-			Inlined inlined = (Inlined) v;
-			lines.getLast().append(inlined.s);
-		}
+	private void append(String s) throws IOException {
+		has_line = true;
+		out.append(s);
+	}
 
-		if (v instanceof MultiLineString) {
-			MultiLineString mls = (MultiLineString) v;
-			lines.getLast().append("|");
-			for (String line: mls.lines) {
-				lines.addLast(new StringBuilder());
-				encode_indent(lines, indent_str, indent);
-				lines.getLast().append(line);
+	/// Writes the lines of a multi-line string. Like splitting on `\n\r?`,
+	/// trailing empty lines are dropped.
+	private void encode_multi_line_string(String s, int indent) throws IOException {
+		append("|");
+
+		int empty_lines = 0;
+		int start = 0;
+		while (start <= s.length()) {
+			int end = s.indexOf('\n', start);
+			if (end < 0) {
+				end = s.length();
 			}
-		}
 
-		if (v instanceof Obj) {
-			Obj obj = (Obj) v;
+			if (end == start) {
+				// only written if a non empty line follows
+				empty_lines++;
+			} else {
+				for (; empty_lines > 0; empty_lines--) {
+					new_line(indent);
+				}
+				new_line(indent);
+				out.append(s, start, end);
+			}
+
+			start = end + 1;
+			if (start < s.length() && s.charAt(start) == '\r') {
+				start++;
+			}
+		}
+	}
 
-			for (Map.Entry<String, EncodedValue> entry: obj.values.entrySet()) { // (key, value) in v {
-				String key = entry.getKey();
-				EncodedValue value = entry.getValue();
+	/// Encodes `count` entries on the pool and appends them in order. Must be
+	/// called from a task of the pool.
+	private void encode_parallel(int count, EntryEncoder entries) throws IOException {
+		ArrayList<RangeTask> tasks = new ArrayList<>();
+		for (int from = 0; from < count; from += PARALLEL_CHUNK) {
+			// every entry starts a line, so only the first range can be the
+			// start of the output
+			boolean started = has_line || from > 0;
+			tasks.add(new RangeTask(indent_str, started, entries, from, Math.min(count, from + PARALLEL_CHUNK)));
+		}
+		ForkJoinTask.invokeAll(tasks);
 
-				lines.addLast(new StringBuilder());
+		for (RangeTask task: tasks) {
+			out.append(task.out);
+		}
+		has_line = true;
+	}
 
-				encode_indent(lines, indent_str, indent);
+	private void encode_value(Value v, int indent) throws IOException {
+		if (v.isPrimitive()) {
+			PrimitiveValue p = v.getPrimitive();
+			if (p.isText() && should_be_multi_line(p.getText())) {
+				encode_multi_line_string(p.getText(), indent);
+			} else {
+				append(encode_primitive(p));
+			}
+			return;
+		}
 
-				// for readability, if the next value is a multi line array,
-				// don't add a space after the colon
-				if (value.is_multi_line_array()) {
-					lines.getLast().append(key).append(":");
-				} else {
-					lines.getLast().append(key).append(": ");
-				}
+		if (v.isObject()) {
+			if (parallel && v.size() >= PARALLEL_THRESHOLD) {
+				String[] keys = new String[v.size()];
+				Value[] values = new Value[keys.length];
+				int[] count = {0};
+				v.forEachField((key, value) -> {
+					keys[count[0]] = key;
+					values[count[0]] = value;
+					count[0]++;
+				});
+				encode_parallel(count[0], (encoder, i) -> encoder.encode_field(keys[i], values[i], indent));
+				return;
+			}
 
-				// encode the value
-				encoded_to_lines(indent_str, lines, indent + 1, value);
+			try {
+				v.forEachField((key, value) -> {
+					try {
+						encode_field(key, value, indent);
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				});
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
 			}
+			return;
 		}
 
-		if (v instanceof InlinedArray) {
-			ArrayList<EncodedValue> arr = ((InlinedArray) v).values;
+		if (v.isArray()) {
+			int size = v.size();
 
-			lines.getLast().append("[");
-			if (arr.size() > 0) {
-				Iterator<EncodedValue> iter = arr.iterator();
-				encoded_to_lines(indent_str, lines, indent, iter.next());
+			if (is_multi_line_array(v)) {
+				append("--");
 
-				while(iter.hasNext()) {
-					lines.getLast().append(" ");
-					encoded_to_lines(indent_str, lines, indent, iter.next());
+				if (parallel && size >= PARALLEL_THRESHOLD) {
+					encode_parallel(size, (encoder, i) -> encoder.encode_item(v.get(i), indent));
+				} else {
+					for (int i = 0; i < size; i++) {
+						encode_item(v.get(i), indent);
+					}
+				}
+			} else {
+				append("[");
+				for (int i = 0; i < size; i++) {
+					if (i > 0) {
+						append(" ");
+					}
+					encode_value(v.get(i), indent);
 				}
+				append("]");
 			}
-			lines.getLast().append("]");
 		}
+	}
 
-		if (v instanceof MultiLineArray) {
-			ArrayList<EncodedValue> arr = ((MultiLineArray) v).values;
+	/// Encodes an entry of a multi-line array.
+	private void encode_item(Value value, int indent) throws IOException {
+		new_line(indent);
 
-			lines.getLast().append("--");
+		if (!is_multi_line_array(value)) {
+			append("- ");
+		}
 
-			for (EncodedValue encodedValue: arr) {
-				lines.addLast(new StringBuilder());
-				encode_indent(lines, indent_str, indent);
+		encode_value(value, indent + 1);
+	}
 
-				if (!(encodedValue instanceof MultiLineArray)) {
-					lines.getLast().append("- ");
-				}
+	private void encode_field(String key, Value value, int indent) throws IOException {
+		new_line(indent);
 
-				encoded_to_lines(indent_str, lines, indent + 1, encodedValue);
-			}
+		// for readability, if the next value is a multi line array,
+		// don't add a space after the colon
+		append(key);
+		if (is_multi_line_array(value)) {
+			append(":");
+		} else {
+			append(": ");
 		}
-	}
-
 
-	public static String encode(Value v, Indention indention) {
-		// convert indention to string
+		// encode the value
+		encode_value(value, indent + 1);
+	}
 
+	private static String indent_str(Indention indention) {
 		StringBuilder indent_str = new StringBuilder();
 		if (indention.isSpaces()) {
 			int count = ((Indention.Spaces) indention).count;
@@ -296,20 +378,120 @@ public class ExpandedEncoder {
 		if (indention.isTabs()) {
 			indent_str.append("\t");
 		}
+		return indent_str.toString();
+	}
+
+	/// Reports the statistics of the values encoded from now on to `metrics`,
+	/// or stops if it's null. The values are counted after they have been
+	/// encoded, and aren't counted at all without metrics.
+	public static void setMetrics(KvonMetrics metrics) {
+		ExpandedEncoder.metrics = metrics;
+	}
+
+	/// Runs `encoding`, and reports what it wrote to `metrics`.
+	private static void measure(Value v, Appendable out, KvonMetrics metrics, Encoding encoding) throws IOException {
+		Object token = metrics.startEncode();
+		long start = System.nanoTime();
+		CountingAppendable counted = new CountingAppendable(out);
+		encoding.encode(counted);
+		long elapsed = System.nanoTime() - start;
+
+		Tally tally = new Tally();
+		tally.count(v, 1);
+		metrics.onEncode(new KvonMetrics.Document(
+			counted.lines,
+			counted.characters,
+			tally.nodes,
+			tally.max_depth,
+			tally.multi_line_characters,
+			elapsed,
+			counted.hash,
+			token
+		));
+	}
+
+	/// Encodes `v` into `out` in a single pass.
+	public static void encode(Value v, Indention indention, Appendable out) throws IOException {
+		KvonMetrics metrics = ExpandedEncoder.metrics;
+		if (metrics != null) {
+			measure(v, out, metrics, counted -> encode_sequential(v, indention, counted));
+		} else {
+			encode_sequential(v, indention, out);
+		}
+	}
+
+	private static void encode_sequential(Value v, Indention indention, Appendable out) throws IOException {
+		ExpandedEncoder encoder = new ExpandedEncoder(out, indent_str(indention), false);
+		encoder.encode_value(v, 0);
+		if (encoder.has_line) {
+			out.append('\n');
+		}
+	}
+
+	/// Encodes `v` into `out` in a single pass, and flushes it. The writer is
+	/// not closed.
+	public static void encode(Value v, Indention indention, Writer out) throws IOException {
+		encode(v, indention, (Appendable) out);
+		out.flush();
+	}
+
+	public static String encode(Value v, Indention indention) {
+		StringBuilder out = new StringBuilder();
+		try {
+			encode(v, indention, out);
+		} catch (IOException e) {
+			// appending to a string builder never fails
+			throw new RuntimeException(e);
+		}
+		return out.toString();
+	}
 
-		// encode value
-		EncodedValue encoded = EncodedValue.fromValue(v);
+	/// Encodes `v` into `out`, splitting objects and multi-line arrays with
+	/// many entries over `pool`. The output is the same as `encode`'s, and
+	/// `out` is only appended to by one thread at a time.
+	public static void encodeParallel(Value v, Indention indention, Appendable out, ForkJoinPool pool) throws IOException {
+		KvonMetrics metrics = ExpandedEncoder.metrics;
+		if (metrics != null) {
+			measure(v, out, metrics, counted -> encode_on_pool(v, indention, counted, pool));
+		} else {
+			encode_on_pool(v, indention, out, pool);
+		}
+	}
 
-		// convert to lines
-		ArrayDeque<StringBuilder> lines = new ArrayDeque<>();
-		encoded_to_lines(indent_str.toString(), lines, 0, encoded);
+	private static void encode_on_pool(Value v, Indention indention, Appendable out, ForkJoinPool pool) throws IOException {
+		ExpandedEncoder encoder = new ExpandedEncoder(out, indent_str(indention), true);
+		try {
+			pool.invoke(new RecursiveAction() {
+				@Override
+				protected void compute() {
+					try {
+						encoder.encode_value(v, 0);
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		if (encoder.has_line) {
+			out.append('\n');
+		}
+	}
 
-		// join lines
+	public static String encodeParallel(Value v, Indention indention, ForkJoinPool pool) {
 		StringBuilder out = new StringBuilder();
-		for (StringBuilder sb: lines) {
-			System.out.println(sb.toString());
-			//out.append(sb.toString()).append("\n");
+		try {
+			encodeParallel(v, indention, out, pool);
+		} catch (IOException e) {
+			// appending to a string builder never fails
+			throw new RuntimeException(e);
 		}
 		return out.toString();
 	}
+
+	/// Encodes `v` on the common pool.
+	public static String encodeParallel(Value v, Indention indention) {
+		return encodeParallel(v, indention, ForkJoinPool.commonPool());
+	}
 }
@@ -3,11 +3,32 @@ package org.kvon;
 import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 import org.kvon.encoders.ExpandedEncoder;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 
 public class ParseTest extends TestCase {
 	public ParseTest(String testName ) {
@@ -26,6 +47,115 @@ public class ParseTest extends TestCase {
 		assertTrue(true);
 	}
 
+	public void testNumericalLiterals() {
+		LineParser lineParser = new LineParser(0, "-.5 007 1.2.3 123456789012345678901 -");
+		assertEquals(lineParser.parseNumericalLiteral().get(), -0.5f);
+		lineParser.consumeWhitespaces();
+		assertEquals(lineParser.parseNumericalLiteral().get(), 7.0f);
+		lineParser.consumeWhitespaces();
+		assertEquals(lineParser.parseNumericalLiteral().get(), 1.2f);
+		assertEquals(lineParser.parseNumericalLiteral().get(), 0.3f);
+		lineParser.consumeWhitespaces();
+		assertEquals(lineParser.parseNumericalLiteral().get(), 123456789012345678901f);
+		lineParser.consumeWhitespaces();
+
+		// a lone minus is not a number and must not be consumed
+		assertFalse(lineParser.parseNumericalLiteral().isPresent());
+		assertTrue(lineParser.see("-"));
+	}
+
+	public void testNumberPrecision() {
+		Value root;
+		try {
+			root = Parser.parseString("id: 1234567890123456789\nt: -0.1\nbig: 12345678901234567890.5\n");
+		} catch (KvonException e) {
+			throw new RuntimeException(e);
+		}
+
+		PrimitiveValue id = root.getObject().get("id").getPrimitive();
+		assertEquals(id.getLong(), 1234567890123456789L);
+
+		PrimitiveValue t = root.getObject().get("t").getPrimitive();
+		assertEquals(t.getDouble(), -0.1);
+		assertEquals(t.getNumber(), -0.1f);
+
+		PrimitiveValue big = root.getObject().get("big").getPrimitive();
+		assertEquals(big.getBigDecimal(), new BigDecimal("12345678901234567890.5"));
+		assertEquals(big.getDouble(), 12345678901234567890.5);
+		// beyond the range of a long, like `(long) 12345678901234567890.5`
+		assertEquals(big.getLong(), Long.MAX_VALUE);
+		assertEquals(Value.numberLiteral("-12345678901234567890").asLong(), Long.MIN_VALUE);
+		assertEquals(Value.numberLiteral("-9223372036854775808").asLong(), Long.MIN_VALUE);
+	}
+
+	public void testCompactValues() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 20; i++)
+			sb.append("k").append(i).append(": ").append(i).append("\n");
+		sb.append("k3: 'again'").append("\n");
+		sb.append("flags: [true false null]").append("\n");
+
+		Value root;
+		try {
+			root = Parser.parseString(sb.toString());
+		} catch (KvonException e) {
+			throw new RuntimeException(e);
+		}
+
+		assertEquals(root.size(), 21);
+		assertEquals(root.get("k19").asLong(), 19L);
+		assertEquals(root.get("k3").asText(), "again");
+		assertNull(root.get("missing"));
+
+		Value flags = root.get("flags");
+		assertSame(flags.get(0), Value.bool(true));
+		assertFalse(flags.get(1).asBoolean());
+		assertTrue(flags.get(2).isNull());
+
+		// changes through the compatibility map are seen by the accessors,
+		// and the other way around
+		HashMap<String, Value> map = root.getObject();
+		assertSame(root.getObject(), map);
+		map.put("added", Value.text("x"));
+		assertEquals(root.get("added").asText(), "x");
+		assertEquals(root.size(), 22);
+		((Value.FlatObj) root).remove("k3");
+		assertFalse(map.containsKey("k3"));
+
+		// a frozen object hands out copies
+		Value frozen = Value.freeze(root);
+		assertSame(frozen, root);
+		assertEquals(frozen.size(), 21);
+		frozen.getObject().put("other", Value.text("y"));
+		assertNull(frozen.get("other"));
+	}
+
+	public void testInterning() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("records:--").append("\n");
+		for (int i = 0; i < 3; i++) {
+			sb.append("\t").append("-").append("\n");
+			sb.append("\t").append("\t").append("name: 'n'").append("\n");
+			sb.append("\t").append("\t").append("id: ").append(i).append("\n");
+		}
+
+		Value root;
+		try {
+			root = Parser.parse(new StringReader(sb.toString()), new StringInterner());
+		} catch (KvonException | IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		final ArrayList<String> keys = new ArrayList<>();
+		for (Value record: root.get("records").getArray())
+			record.forEachField((key, value) -> keys.add(key));
+
+		assertEquals(keys.size(), 6);
+		assertSame(keys.get(0), keys.get(2));
+		assertSame(keys.get(1), keys.get(5));
+		assertSame(root.get("records").get(0).get("name").asText(), root.get("records").get(2).get("name").asText());
+	}
+
 	public void testMixedObjectsArrays() {
 		// create the test object
 		StringBuilder sb = new StringBuilder();
@@ -60,4 +190,1008 @@ public class ParseTest extends TestCase {
 		ArrayList<Value> bArray = aArray.get(7).getArray();
 		assertEquals(bArray.get(0).getArray().get(1).getPrimitive().getBoolean(), Boolean.FALSE);
 	}
+
+	public void testStreamingParse() {
+		// a line longer than the reader's chunk followed by a short one
+		StringBuilder sb = new StringBuilder();
+		sb.append("long: [");
+		for (int i = 0; i < 4000; i++)
+			sb.append(i).append(" ");
+		sb.append("]").append("\n\r");
+		sb.append("short: 'abc'").append("\n");
+
+		Value root;
+		try {
+			InputStream in = new ByteArrayInputStream(sb.toString().getBytes(StandardCharsets.UTF_8));
+			root = Parser.parse(in, StandardCharsets.UTF_8);
+		} catch (KvonException | IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		ArrayList<Value> array = root.getObject().get("long").getArray();
+		assertEquals(array.size(), 4000);
+		assertEquals(array.get(3999).getPrimitive().getNumber(), 3999.0f);
+		assertEquals(root.getObject().get("short").getPrimitive().getText(), "abc");
+	}
+
+	public void testPullReader() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("skipped:").append("\n");
+		sb.append("\t").append("a: [1 2]").append("\n");
+		sb.append("database:").append("\n");
+		sb.append("\t").append("size: 12").append("\n");
+		sb.append("\t").append("name: |").append("\n");
+		sb.append("\t").append("\t").append("x").append("\n");
+
+		ArrayList<KvonToken> seen = new ArrayList<>();
+		try {
+			KvonReader reader = KvonReader.fromString(sb.toString());
+			assertEquals(reader.next(), KvonToken.START_OBJECT);
+			assertEquals(reader.next(), KvonToken.KEY);
+			assertEquals(reader.getKey(), "skipped");
+			reader.skipValue();
+			assertEquals(reader.getToken(), KvonToken.END_OBJECT);
+
+			while (reader.hasNext()) {
+				KvonToken token = reader.next();
+				seen.add(token);
+				if (token == KvonToken.NUMBER) {
+					assertEquals(reader.getNumber(), 12.0);
+				}
+				if (token == KvonToken.MULTILINE_TEXT) {
+					assertEquals(reader.getText(), "x");
+				}
+			}
+		} catch (KvonException | IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		assertEquals(seen, Arrays.asList(
+			KvonToken.KEY, KvonToken.START_OBJECT,
+			KvonToken.KEY, KvonToken.NUMBER,
+			KvonToken.KEY, KvonToken.MULTILINE_TEXT,
+			KvonToken.END_OBJECT,
+			KvonToken.END_OBJECT
+		));
+
+		// numbers keep all their digits
+		try {
+			KvonReader reader = KvonReader.fromString("id: 1234567890123456789\nids: [9223372036854775807 -12.50]\n");
+			ArrayList<Long> longs = new ArrayList<>();
+			ArrayList<BigDecimal> decimals = new ArrayList<>();
+			while (reader.hasNext()) {
+				if (reader.next() == KvonToken.NUMBER) {
+					longs.add(reader.getLong());
+					decimals.add(reader.getBigDecimal());
+				}
+			}
+			assertEquals(longs, Arrays.asList(1234567890123456789L, Long.MAX_VALUE, -12L));
+			assertEquals(decimals.get(2), new BigDecimal("-12.50"));
+			assertEquals(decimals.get(1).longValueExact(), Long.MAX_VALUE);
+		} catch (KvonException | IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public void testHandler() {
+		final double[] sum = {0};
+		final int[] depth = {0, 0};
+		KvonHandler handler = new KvonHandler() {
+			@Override public void startObject() { depth[0]++; depth[1] = Math.max(depth[1], depth[0]); }
+			@Override public void endObject() { depth[0]--; }
+			@Override public void startArray() { depth[0]++; depth[1] = Math.max(depth[1], depth[0]); }
+			@Override public void endArray() { depth[0]--; }
+			@Override public void onKey(CharSequence key) { }
+			@Override public void onText(CharSequence text) { }
+			@Override public void onNumber(double number) { sum[0] += number; }
+			@Override public void onBoolean(boolean b) { }
+			@Override public void onNull() { }
+		};
+
+		try {
+			Parser.parse(new StringReader("a: [1 [2 3]]\nb:\n\tc: 4\n"), handler);
+		} catch (KvonException | IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		assertEquals(sum[0], 10.0);
+		assertEquals(depth[0], 0);
+		assertEquals(depth[1], 3);
+	}
+
+	public void testEncodeRoundTrip() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("name: 'kvon'").append("\n");
+		sb.append("text: |").append("\n");
+		sb.append("\t").append("it's").append("\n");
+		sb.append("\t").append("two lines").append("\n");
+		sb.append("list:--").append("\n");
+		sb.append("\t").append("- 1 2.50").append("\n");
+		sb.append("\t").append("- [true null]").append("\n");
+		sb.append("\t").append("- a: 1").append("\n");
+
+		StringWriter out = new StringWriter();
+		Value decoded;
+		try {
+			Value root = Parser.parseString(sb.toString());
+			ExpandedEncoder.encode(root, Indention.tabs(), out);
+			assertEquals(out.toString(), ExpandedEncoder.encode(root, Indention.tabs()));
+			decoded = Parser.parseString(out.toString());
+		} catch (KvonException | IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		assertEquals(decoded.get("name").asText(), "kvon");
+		assertEquals(decoded.get("text").asText(), "it's\ntwo lines");
+		assertEquals(decoded.get("list").size(), 4);
+		assertEquals(decoded.get("list").get(1).getPrimitive().toString(), "2.50");
+		assertTrue(decoded.get("list").get(2).get(1).isNull());
+		assertEquals(decoded.get("list").get(3).get("a").asLong(), 1L);
+	}
+
+	public void testSpaceIndention() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("a:").append("\n");
+		sb.append("  b:").append("\n");
+		sb.append("    c: 1").append("\n");
+		sb.append("  d: [1 2]").append("\n");
+
+		Value root;
+		try {
+			root = Parser.parseString(sb.toString());
+		} catch (KvonException e) {
+			throw new RuntimeException(e);
+		}
+		assertEquals(root.get("a").get("b").get("c").asLong(), 1L);
+		assertEquals(root.get("a").get("d").size(), 2);
+
+		String encoded = ExpandedEncoder.encode(root, Indention.spaces(2));
+		assertTrue(encoded.contains("\n    c: 1\n"));
+
+		try {
+			assertEquals(ExpandedEncoder.encode(Parser.parseString(encoded), Indention.spaces(2)), encoded);
+			Parser.parseString("a:\n  b: 1\n   c: 2");
+			fail();
+		} catch (KvonException e) {
+			// expected
+		}
+	}
+
+	public void testParallelParse() {
+		StringBuilder sb = new StringBuilder();
+		// no indented lines in the first chunks
+		for (int i = 0; i < 20; i++)
+			sb.append("flat_").append(i).append(": ").append(i).append("\n");
+		for (int i = 0; i < 50; i++) {
+			sb.append("# block ").append(i).append("\n");
+			sb.append("block_").append(i).append(":").append("\n");
+			sb.append("  text: |").append("\n");
+			sb.append("    it's").append("\n");
+			sb.append("    block ").append(i).append("\n");
+			sb.append("  list:--").append("\n");
+			sb.append("    - 1 2.50").append("\n");
+			sb.append("    - a: [").append(i).append("]\n");
+			sb.append("\n");
+		}
+		sb.append("flat_3: 'again'").append("\n\r");
+		String document = sb.toString();
+
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			Value sequential = Parser.parseString(document);
+			Value parallel = ParallelParser.parse(document, pool, null, 100);
+			assertEquals(ExpandedEncoder.encode(parallel, Indention.spaces(2)), ExpandedEncoder.encode(sequential, Indention.spaces(2)));
+			assertEquals(parallel.get("flat_3").asText(), "again");
+
+			// errors point at the line of the whole document
+			ParallelParser.parse(document + "a:\n  b: 1\n   c: 2\n", pool, null, 100);
+			fail();
+		} catch (KvonException e) {
+			assertTrue(e.type instanceof KvonException.SpacesNotMultipleOfIndent);
+			try {
+				Parser.parseString(document + "a:\n  b: 1\n   c: 2\n");
+				fail();
+			} catch (KvonException expected) {
+				assertEquals(e.lineNumber, expected.lineNumber);
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	public void testParallelEncode() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 1000; i++)
+			sb.append("key_").append(i).append(": ").append(i).append("\n");
+		sb.append("list:--").append("\n");
+		for (int i = 0; i < 1000; i++) {
+			sb.append("\t").append("- a: ").append(i).append("\n");
+			sb.append("\t").append("- |").append("\n");
+			sb.append("\t\t").append("it's ").append(i).append("\n");
+		}
+
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			Value root = Parser.parseString(sb.toString());
+			assertEquals(ExpandedEncoder.encodeParallel(root, Indention.tabs(), pool), ExpandedEncoder.encode(root, Indention.tabs()));
+
+			// a wide array as the root value starts the output
+			Value list = root.get("list");
+			assertEquals(ExpandedEncoder.encodeParallel(list, Indention.tabs(), pool), ExpandedEncoder.encode(list, Indention.tabs()));
+		} catch (KvonException e) {
+			throw new RuntimeException(e);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	public void testRecordStream() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("---").append("\n");
+		for (int i = 0; i < 100; i++) {
+			sb.append("id: ").append(i).append("\n");
+			sb.append("user:").append("\n");
+			sb.append(i % 2 == 0 ? "\t" : "  ").append("name: 'ada'").append("\n");
+			sb.append("---").append("\n");
+		}
+		sb.append("\n");
+
+		RecordReader records = RecordReader.fromString(sb.toString());
+		records.setInterner(new StringInterner());
+		int count = 0;
+		while (records.hasNext()) {
+			Value record = records.next();
+			assertEquals(record.get("id").asLong(), (long) count);
+			assertEquals(record.get("user").get("name").asText(), "ada");
+			count++;
+		}
+		assertEquals(count, 100);
+
+		Object[] ids = RecordReader.fromString(sb.toString()).parallelStream()
+			.map(record -> record.get("id").asLong())
+			.toArray();
+		assertEquals(ids.length, 100);
+		for (int i = 0; i < ids.length; i++)
+			assertEquals(ids[i], (long) i);
+
+		// a broken record doesn't stop the stream
+		records = RecordReader.fromString("a: 1\n---\nb: 'open\nc: 3\n---\nd: 4");
+		assertEquals(records.next().get("a").asLong(), 1L);
+		try {
+			records.next();
+			fail();
+		} catch (RuntimeException e) {
+			assertEquals(((KvonException) e.getCause()).lineNumber, 2);
+		}
+		assertEquals(records.next().get("d").asLong(), 4L);
+		assertFalse(records.hasNext());
+	}
+
+	public void testSelectedPaths() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("name: 'app'").append("\n");
+		sb.append("cache:").append("\n");
+		sb.append("\t").append("text: |").append("\n");
+		sb.append("\t\t").append("not: [parsed").append("\n");
+		sb.append("# a comment").append("\n");
+		sb.append("\t").append("broken: 'unclosed").append("\n");
+		sb.append("database:").append("\n");
+		sb.append("\t").append("host: 'localhost'").append("\n");
+		sb.append("\t").append("pool:").append("\n");
+		sb.append("\t\t").append("size: 10").append("\n");
+		sb.append("\t\t").append("timeout: 5").append("\n");
+		sb.append("\t").append("replicas:--").append("\n");
+		sb.append("\t\t").append("- 'a' 'b'").append("\n");
+		sb.append("\t").append("users:").append("\n");
+		sb.append("\t\t").append("admin: |").append("\n");
+		sb.append("\t\t\t").append("it's").append("\n");
+		sb.append("\t\t").append("guest").append("\n");
+
+		Value root;
+		try {
+			root = Parser.parseSelected(sb.toString(), "database.pool.size", "database.users", "database.replicas.0");
+		} catch (KvonException e) {
+			throw new RuntimeException(e);
+		}
+
+		assertEquals(root.size(), 1);
+		Value database = root.get("database");
+		assertEquals(database.size(), 2);
+		assertEquals(database.get("pool").size(), 1);
+		assertEquals(database.get("pool").get("size").asLong(), 10L);
+		assertEquals(database.get("users").get("admin").asText(), "it's");
+		assertTrue(database.get("users").get("guest").isNull());
+	}
+
+	public void testKeyPathIndex() throws IOException {
+		StringBuilder sb = new StringBuilder();
+		sb.append("name: 'caf\u00e9'").append("\n");
+		sb.append("database:").append("\n");
+		sb.append("  pool:").append("\n");
+		sb.append("    size: 10").append("\n");
+		sb.append("  motd: |").append("\n");
+		sb.append("    it's").append("\n");
+		sb.append("    two lines").append("\n");
+		sb.append("\n");
+		sb.append("  replicas:--").append("\n");
+		sb.append("    - a: 1").append("\n");
+		sb.append("last: [1 2]");
+
+		Path source = Files.createTempFile("kvon", ".kvon");
+		Path sidecar = KeyPathIndex.sidecarOf(source);
+		try {
+			Files.write(source, sb.toString().getBytes(StandardCharsets.UTF_8));
+			try (IndexedFile file = IndexedFile.open(source)) {
+				assertTrue(Files.exists(sidecar));
+				assertEquals(file.getIndex().size(), 7);
+				assertNull(file.getIndex().get("database.replicas.a"));
+
+				KeyPathIndex.Entry size = file.getIndex().get("database.pool.size");
+				assertEquals(size.lineNumber, 3);
+				assertEquals(size.indent, 2);
+
+				assertEquals(file.get("name").asText(), "caf\u00e9");
+				assertEquals(file.get("database.pool.size").asLong(), 10L);
+				assertEquals(file.get("database.pool").size(), 1);
+				assertEquals(file.get("database.motd").asText(), "it's\ntwo lines");
+				assertEquals(file.get("database.replicas").get(0).get("a").asLong(), 1L);
+				assertEquals(file.get("last").size(), 2);
+				assertEquals(file.get("database").size(), 3);
+				assertNull(file.get("missing"));
+			}
+
+			// the saved index is used as it is
+			KeyPathIndex loaded = KeyPathIndex.load(sidecar);
+			assertTrue(loaded.isUpToDate(source));
+			assertEquals(loaded.get("database.motd").offset, sb.substring(0, sb.indexOf("  motd")).getBytes(StandardCharsets.UTF_8).length);
+
+			// a truncated sidecar is built again
+			Files.write(sidecar, Arrays.copyOf(Files.readAllBytes(sidecar), 20));
+			try (IndexedFile file = IndexedFile.open(source)) {
+				assertEquals(file.get("database.pool.size").asLong(), 10L);
+			}
+			assertEquals(KeyPathIndex.load(sidecar).size(), 7);
+
+			// a sidecar which can't be written is skipped
+			Files.delete(sidecar);
+			Path blocker = Files.createDirectories(sidecar.resolve("blocker"));
+			try (IndexedFile file = IndexedFile.open(source)) {
+				assertEquals(file.get("database.pool.size").asLong(), 10L);
+			} finally {
+				Files.delete(blocker);
+			}
+			try (DirectoryStream<Path> temporary = Files.newDirectoryStream(source.getParent(), sidecar.getFileName() + "*.tmp")) {
+				assertFalse(temporary.iterator().hasNext());
+			}
+		} catch (KvonException e) {
+			throw new RuntimeException(e);
+		} finally {
+			Files.deleteIfExists(sidecar);
+			Files.deleteIfExists(source);
+		}
+	}
+
+	public void testIncrementalParse() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("name: 'app'").append("\n");
+		sb.append("database:").append("\n");
+		sb.append("\t").append("pool:").append("\n");
+		sb.append("\t\t").append("size: 10").append("\n");
+		sb.append("\t\t").append("timeout: 5").append("\n");
+		sb.append("\t").append("motd: |").append("\n");
+		sb.append("\t\t").append("hello").append("\n");
+		sb.append("cache:").append("\n");
+		sb.append("\t").append("size: 1").append("\n");
+
+		try {
+			IncrementalParser parser = new IncrementalParser(sb.toString());
+			Value root = parser.getValue();
+			Value cache = root.get("cache");
+
+			// only `database.pool` is parsed again
+			parser.replaceLines(3, 4, Arrays.asList("\t\tsize: 20", "\t\tidle: 2"));
+			assertSame(parser.getValue(), root);
+			assertSame(root.get("cache"), cache);
+			assertEquals(root.get("database").get("pool").get("size").asLong(), 20L);
+			assertEquals(root.get("database").get("pool").get("idle").asLong(), 2L);
+
+			// the keys after the edit have moved by a line
+			parser.replaceLines(7, 8, Arrays.asList("\t\thello", "\t\tworld"));
+			assertEquals(root.get("database").get("motd").asText(), "hello\nworld");
+			Value database = root.get("database");
+			parser.replaceLines(10, 11, Collections.singletonList("\tsize: 2"));
+			assertSame(root.get("database"), database);
+			assertEquals(root.get("cache").get("size").asLong(), 2L);
+
+			// a broken edit changes nothing
+			try {
+				parser.replaceLines(3, 4, Collections.singletonList("\t\tsize: 'open"));
+				fail();
+			} catch (KvonException e) {
+				assertEquals(e.lineNumber, 3);
+			}
+			assertEquals(parser.getLineCount(), 11);
+
+			// a new root key parses the whole document again
+			parser.replaceLines(11, 11, Collections.singletonList("extra: true"));
+			String text = String.join("\n", parser.getLines());
+			assertEquals(ExpandedEncoder.encode(parser.getValue(), Indention.tabs()), ExpandedEncoder.encode(Parser.parseString(text), Indention.tabs()));
+			assertTrue(parser.getValue().get("extra").asBoolean());
+
+			// editing the line which defined the indention defines it anew
+			IncrementalParser spaces = new IncrementalParser("x:\n  a: 1\ny: 2");
+			spaces.replaceLines(1, 2, Collections.singletonList("    a: 7"));
+			assertEquals(spaces.getValue(), Parser.parseString("x:\n    a: 7\ny: 2"));
+
+			IncrementalParser screen = new IncrementalParser("s: |\n  a\n  b\nt: 1");
+			try {
+				screen.replaceLines(1, 2, Collections.singletonList("    a"));
+				fail();
+			} catch (KvonException e) {
+				assertEquals(screen.getValue().get("s").asText(), "a\nb");
+			}
+		} catch (KvonException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public void testConfigSource() throws Exception {
+		Path file = Files.createTempFile("kvon", ".kvon");
+		Files.write(file, "a: 1\nb:\n\tc: 'x'\n\td: [1 2]\n".getBytes(StandardCharsets.UTF_8));
+
+		try (KvonConfigSource config = KvonConfigSource.watch(file)) {
+			assertEquals(config.get().get("a").asLong(), 1L);
+
+			ArrayBlockingQueue<Set<String>> changes = new ArrayBlockingQueue<>(8);
+			config.addListener((paths, previous, current) -> changes.add(paths));
+
+			Files.write(file, "a: 1.0\nb:\n\tc: 'y'\n\td: [1 3]\ne: null\n".getBytes(StandardCharsets.UTF_8));
+			Set<String> paths = changes.poll(10, TimeUnit.SECONDS);
+			assertEquals(paths, new TreeSet<>(Arrays.asList("b.c", "b.d", "e")));
+			assertEquals(config.get().get("b").get("c").asText(), "y");
+
+			// nothing changed, nothing is published
+			Value current = config.get();
+			assertTrue(config.reload().isEmpty());
+			assertSame(config.get(), current);
+
+			// a listener which throws doesn't stop the others, and the
+			// versions can't be changed by their readers
+			config.close();
+			ArrayList<Throwable> uncaught = new ArrayList<>();
+			Thread.UncaughtExceptionHandler handler = Thread.currentThread().getUncaughtExceptionHandler();
+			Thread.currentThread().setUncaughtExceptionHandler((t, e) -> uncaught.add(e));
+			try {
+				config.addListener((p, previous, next) -> {
+					throw new IllegalStateException("listener");
+				});
+				ArrayList<Set<String>> after = new ArrayList<>();
+				config.addListener((p, previous, next) -> after.add(p));
+
+				Files.write(file, "a: 2\n".getBytes(StandardCharsets.UTF_8));
+				assertFalse(config.reload().isEmpty());
+				assertEquals(after.size(), 1);
+				assertEquals(uncaught.size(), 1);
+				assertEquals(config.get().get("a").asLong(), 2L);
+			} finally {
+				Thread.currentThread().setUncaughtExceptionHandler(handler);
+			}
+
+			try {
+				((Value.FlatObj) config.get()).put("a", Value.none());
+				fail();
+			} catch (UnsupportedOperationException e) {
+				// frozen
+			}
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	public void testPatch() {
+		StringBuilder before = new StringBuilder();
+		before.append("name: 'app'").append("\n");
+		before.append("database:").append("\n");
+		before.append("\t").append("pool:").append("\n");
+		before.append("\t\t").append("size: 10").append("\n");
+		before.append("\t").append("hosts: ['a' 'b' 'c' 'd']").append("\n");
+		before.append("servers:--").append("\n");
+		before.append("\t").append("- port: 80").append("\n");
+		before.append("\t").append("- port: 81").append("\n");
+		before.append("debug: true").append("\n");
+
+		StringBuilder after = new StringBuilder();
+		after.append("name: 'app'").append("\n");
+		after.append("database:").append("\n");
+		after.append("\t").append("pool:").append("\n");
+		after.append("\t\t").append("size: 10.0").append("\n");
+		after.append("\t\t").append("idle: 2").append("\n");
+		after.append("\t").append("hosts: ['a' 'x' 'y' 'd']").append("\n");
+		after.append("servers:--").append("\n");
+		after.append("\t").append("- port: 80").append("\n");
+		after.append("\t").append("- port: 8081").append("\n");
+		after.append("\t").append("- port: 82").append("\n");
+
+		try {
+			Value from = Parser.parseString(before.toString());
+			Value to = Parser.parseString(after.toString());
+
+			// equal regardless of the classes, the key order and the literals
+			assertEquals(Parser.parseString("a: 1.50\nb: [1 'x']\n"), Parser.parseString("b: [1.0 'x']\na: 1.5\n"));
+			assertEquals(Parser.parseString("a: 1.5\n").hashCode(), Parser.parseString("a: 1.50\n").hashCode());
+			assertFalse(from.equals(to));
+			assertTrue(Patch.diff(from, Parser.parseString(before.toString())).isEmpty());
+
+			Patch patch = Patch.diff(from, to);
+			ArrayList<String> changes = new ArrayList<>();
+			for (Patch.Change change: patch.getChanges())
+				changes.add(change.toString());
+			assertEquals(changes, Arrays.asList(
+				"ADDED database.pool.idle",
+				"CHANGED database.hosts[1]",
+				"CHANGED database.hosts[2]",
+				"CHANGED servers[1].port",
+				"SPLICED servers[2] -0 +1",
+				"REMOVED debug"
+			));
+			assertEquals(patch.getChanges().get(3).getKeyPath(), "servers");
+
+			// the unchanged subtrees are shared
+			Value patched = patch.apply(from);
+			assertEquals(patched, to);
+			assertFalse(patched.equals(from));
+			assertSame(patched.get("servers").get(0), from.get("servers").get(0));
+			assertEquals(from, Parser.parseString(before.toString()));
+
+			try {
+				patch.apply(Parser.parseString("name: 'app'\n"));
+				fail();
+			} catch (IllegalArgumentException e) {
+				// no `database.pool`
+			}
+
+			// a tree changed in place after it was hashed
+			Value x = Parser.parseString("a:\n  b: 1");
+			Value y = Parser.parseString("a:\n  b: 1");
+			x.hashCode();
+			((Value.FlatObj) x.get("a")).put("b", Value.numberLiteral("2"));
+			assertEquals(x, Parser.parseString("a:\n  b: 2"));
+			assertEquals(x.hashCode(), Parser.parseString("a:\n  b: 2").hashCode());
+			assertFalse(x.equals(y));
+			assertEquals(Patch.diff(x, y).getChanges().size(), 1);
+			assertEquals(Patch.diff(y, x).apply(y), x);
+		} catch (KvonException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public void testParseCache() {
+		String a = "name: 'a'\nports: [80 443]\n";
+		String b = "name: 'b'\nports: [80 443]\n";
+		String c = "name: 'c'\nports: [80 443]\n";
+
+		try {
+			ParseCache cache = new ParseCache(1 << 20);
+			Value first = cache.parse(a);
+			assertSame(cache.parse(new String(a.toCharArray())), first);
+			assertEquals(cache.getHitCount(), 1);
+			assertEquals(cache.getMissCount(), 1);
+			assertEquals(first, Parser.parseString(a));
+
+			// the shared trees can't be changed
+			try {
+				((Value.FlatObj) first).put("name", Value.text("x"));
+				fail();
+			} catch (UnsupportedOperationException e) {
+				// frozen
+			}
+			first.get("ports").getArray().clear();
+			assertEquals(first.get("ports").size(), 2);
+
+			// room for two documents, `a` being the least recently used
+			long size = cache.getBytes();
+			cache = new ParseCache(size * 2 + size / 2);
+			cache.parse(a);
+			cache.parse(b);
+			cache.parse(a);
+			cache.parse(c);
+			assertEquals(cache.size(), 2);
+			assertEquals(cache.getEvictionCount(), 1);
+			cache.parse(a);
+			cache.parse(b);
+			assertEquals(cache.getHitCount(), 2);
+			assertEquals(cache.getMissCount(), 4);
+		} catch (KvonException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public void testParserPool() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("name: 'app'").append("\n");
+		sb.append("motd: |").append("\n");
+		sb.append("\t").append("hello").append("\n");
+		sb.append("\t").append("world").append("\n");
+		sb.append("servers:--").append("\n");
+		sb.append("\t").append("- port: 80").append("\n");
+
+		try {
+			ParserPool pool = new ParserPool();
+			Value expected = Parser.parseString(sb.toString());
+			Value first = pool.parse(sb.toString());
+			Value second = pool.parse(sb.toString());
+			assertNotSame(first, second);
+			assertEquals(first, expected);
+			assertEquals(second, expected);
+			assertEquals(second.get("motd").asText(), "hello\nworld");
+
+			// a failed document doesn't affect the next one
+			try {
+				pool.parse("a: 'open\n");
+				fail();
+			} catch (KvonException e) {
+				assertEquals(e.lineNumber, 0);
+			}
+			assertEquals(pool.parse(sb.toString()), expected);
+
+			// a reset parser starts over, with its own indention
+			Parser parser = new Parser();
+			parser.nextLine("a:");
+			parser.nextLine("    b: 1");
+			parser.reset();
+			parser.nextLine("a:");
+			parser.nextLine("\tb: 2");
+			assertEquals(parser.finish().get("a").get("b").asLong(), 2L);
+		} catch (KvonException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public void testValidate() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("a: 1").append("\n");
+		sb.append("b: 'open").append("\n");
+		sb.append("c:").append("\n");
+		sb.append("\t").append("d: @").append("\n");
+		sb.append("\t\t").append("e: @").append("\n");
+		sb.append("\t").append("f: 2").append("\n");
+		sb.append("    ").append("g: 3").append("\n");
+		sb.append("h: [1 2").append("\n");
+		sb.append("i: 4").append("\n");
+
+		// the line under `d` is skipped, the others are checked
+		Diagnostics diagnostics = Parser.validate(sb.toString());
+		assertEquals(diagnostics.size(), 4);
+		assertEquals(diagnostics.getLineNumber(0), 1);
+		assertTrue(diagnostics.getType(0) instanceof KvonException.UnclosedString);
+		assertEquals(diagnostics.getLineNumber(1), 3);
+		assertEquals(diagnostics.getColumnNumber(1), 4);
+		assertTrue(diagnostics.getType(1) instanceof KvonException.UnexpectedCharacter);
+		assertEquals(diagnostics.getLineNumber(2), 6);
+		assertTrue(diagnostics.getType(2) instanceof KvonException.InconsistentIndention);
+		assertEquals(diagnostics.getLineNumber(3), 7);
+
+		assertTrue(Parser.validate("a:\n\tb: [1 2]\n").isEmpty());
+
+		// without collecting, the first error is thrown as before
+		try {
+			Parser.parseString(sb.toString());
+			fail();
+		} catch (KvonException e) {
+			assertEquals(e.lineNumber, 1);
+			assertTrue(e.getStackTrace().length > 0);
+		}
+		assertEquals(new KvonException(0, 0, "", new KvonException.InvalidIndention(), false).getStackTrace().length, 0);
+	}
+
+	public void testTape() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("name: 'app'").append("\n");
+		sb.append("motd: |").append("\n");
+		sb.append("\t").append("hello").append("\n");
+		sb.append("\t").append("world").append("\n");
+		sb.append("database:").append("\n");
+		sb.append("\t").append("port: 5432").append("\n");
+		sb.append("\t").append("ssl: true").append("\n");
+		sb.append("\t").append("password: null").append("\n");
+		sb.append("empty:").append("\n");
+		sb.append("servers:--").append("\n");
+		sb.append("\t").append("- port: 80").append("\n");
+		sb.append("\t").append("- [1 2.50]").append("\n");
+
+		try {
+			Tape tape = Tape.parse(sb.toString());
+			assertEquals(tape.toValue(), Parser.parseString(sb.toString()));
+
+			Tape.Cursor c = tape.cursor();
+			assertTrue(c.isObject());
+			assertEquals(c.size(), 5);
+			assertTrue(c.toKey("database"));
+			assertTrue(c.toKey("port"));
+			assertEquals(c.asLong(), 5432L);
+			assertTrue(c.keyEquals("port"));
+			assertTrue(c.toNext());
+			assertEquals(c.key(), "ssl");
+			assertTrue(c.asBoolean());
+			assertTrue(c.toNext());
+			assertTrue(c.isNull());
+			assertFalse(c.toNext());
+			assertTrue(c.toParent());
+			assertFalse(c.toKey("missing"));
+			assertTrue(c.toParent());
+			assertEquals(c.getDepth(), 0);
+			assertFalse(c.toParent());
+
+			Tape.Cursor servers = c.copy();
+			assertTrue(servers.toKey("servers"));
+			assertEquals(servers.size(), 2);
+			assertTrue(servers.toIndex(1));
+			assertNull(servers.key());
+			assertTrue(servers.toFirst());
+			assertTrue(servers.toNext());
+			assertEquals(servers.asBigDecimal(), new BigDecimal("2.50"));
+			assertEquals(servers.getDepth(), 3);
+
+			assertTrue(c.toKey("motd"));
+			assertTrue(c.textEquals("hello\nworld"));
+			assertTrue(c.toParent() && c.toKey("empty"));
+			assertTrue(c.isObject());
+			assertFalse(c.toFirst());
+		} catch (KvonException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public void testSnapshot() throws Exception {
+		StringBuilder sb = new StringBuilder();
+		sb.append("name: 'app'").append("\n");
+		sb.append("motd: |").append("\n");
+		sb.append("\t").append("hello").append("\n");
+		sb.append("\t").append("world").append("\n");
+		sb.append("database:").append("\n");
+		sb.append("\t").append("port: -5432").append("\n");
+		sb.append("\t").append("size: 123456789012345678901234567890").append("\n");
+		sb.append("\t").append("ratio: 0.50").append("\n");
+		sb.append("\t").append("name: 'app'").append("\n");
+		sb.append("servers:--").append("\n");
+		sb.append("\t").append("- port: 80").append("\n");
+		sb.append("\t").append("- [true null]").append("\n");
+
+		Path file = Files.createTempFile("kvon", ".kvons");
+		Path other = Files.createTempFile("kvon", ".kvon");
+		try {
+			Value value = Parser.parseString(sb.toString());
+			((Value.FlatObj) value.get("database")).put("weight", Value.number(1.5f));
+			Snapshot.compile(value, file);
+
+			try (Snapshot snapshot = Snapshot.open(file)) {
+				Value root = snapshot.getRoot();
+				assertEquals(root, value);
+				assertEquals(root.size(), 4);
+				assertEquals(root.get("motd").asText(), "hello\nworld");
+				assertEquals(root.get("database").get("port").asLong(), -5432L);
+				assertEquals(root.get("database").get("size").asBigDecimal(), new BigDecimal("123456789012345678901234567890"));
+				assertEquals(root.get("database").get("ratio").toString(), "0.50");
+				assertEquals(root.get("database").get("weight").asDouble(), 1.5);
+				assertNull(root.get("missing"));
+				assertNull(root.get("database").get("motd"));
+				assertEquals(root.get("servers").get(1).get(0).asBoolean(), true);
+				assertTrue(root.get("servers").get(1).get(1).isNull());
+				assertEquals(root.get("servers").getArray().size(), 2);
+			}
+
+			// large arrays are read element by element without walking them,
+			// whether their elements are single entries or not
+			ArrayList<Value> numbers = new ArrayList<>();
+			ArrayList<Value> mixed = new ArrayList<>();
+			for (int i = 0; i < 100000; i++) {
+				numbers.add(Value.numberLiteral(Integer.toString(i)));
+				mixed.add(i % 2 == 0 ? Value.keyValuePair("id", Value.numberLiteral(Integer.toString(i))) : Value.number(i));
+			}
+			Value.FlatObj large = new Value.FlatObj();
+			large.put("numbers", Value.arr(numbers));
+			large.put("mixed", Value.arr(mixed));
+			Snapshot.compile(large, file);
+
+			try (Snapshot snapshot = Snapshot.open(file)) {
+				Value root = snapshot.getRoot();
+				assertEquals(root, large);
+				assertEquals(root.get("numbers").get(99999).asLong(), 99999L);
+				assertEquals(root.get("mixed").get(99998).get("id").asLong(), 99998L);
+				assertEquals(root.get("mixed").get(99999).asDouble(), 99999.0);
+				try {
+					root.get("mixed").get(100000);
+					fail();
+				} catch (IndexOutOfBoundsException e) {
+					// past the end
+				}
+			}
+
+			Files.write(other, sb.toString().getBytes(StandardCharsets.UTF_8));
+			try {
+				Snapshot.open(other);
+				fail();
+			} catch (IOException e) {
+				assertTrue(e.getMessage().startsWith("not a KVON snapshot"));
+			}
+		} finally {
+			Files.deleteIfExists(file);
+			Files.deleteIfExists(other);
+		}
+	}
+
+	public void testScan() {
+		// every position of the match relative to the words, and bytes which
+		// only differ from it in their high bits
+		for (int n = 0; n < 40; n++) {
+			for (int at = -1; at < n; at++) {
+				byte[] bytes = new byte[n];
+				Arrays.fill(bytes, (byte) 0x8a);
+				if (at >= 0)
+					bytes[at] = '\n';
+				if (at >= 0 && at + 1 < n)
+					bytes[at + 1] = '\n';
+				assertEquals(Scan.indexOf(Scan.wrap(bytes), 0, n, (byte) '\n'), at);
+				assertEquals(Scan.indexOf(Scan.wrap(bytes), Math.max(at, 0), n, (byte) '\n'), at);
+			}
+		}
+
+		char[] line = "key_é;x: 'it''s'".toCharArray();
+		assertEquals(Scan.skipKey(line, 0, line.length), 5);
+		assertEquals(Scan.indexOf(line, 0, line.length, '\''), 9);
+
+		try {
+			Value v = Parser.parseString("a: '''x'' '' y'''\nb: 'end'");
+			assertEquals(v.get("a").asText(), "x'' '' y");
+			Parser.parseString("c: 'x");
+			fail();
+		} catch (KvonException e) {
+			assertEquals(e.columnNumber, 5);
+		}
+	}
+
+	public void testMetrics() throws Exception {
+		StringBuilder sb = new StringBuilder();
+		sb.append("name: 'app'").append("\n");
+		sb.append("motd: |").append("\n");
+		sb.append("\t").append("hello").append("\n");
+		sb.append("\t").append("world").append("\n");
+		// as the encoder writes it, with a space after the colon
+		sb.append("database: ").append("\n");
+		sb.append("\t").append("pool: ").append("\n");
+		sb.append("\t\t").append("size: 10").append("\n");
+		sb.append("servers:--").append("\n");
+		sb.append("\t").append("- [1 2]").append("\n");
+		sb.append("\t").append("- 3").append("\n");
+
+		ArrayList<KvonMetrics.Document> parsed = new ArrayList<>();
+		ArrayList<KvonMetrics.Document> encoded = new ArrayList<>();
+		KvonMetrics metrics = new KvonMetrics() {
+			@Override
+			public void onParse(Document document) {
+				parsed.add(document);
+			}
+
+			@Override
+			public void onEncode(Document document) {
+				encoded.add(document);
+			}
+		};
+
+		Parser parser = new Parser();
+		parser.setMetrics(metrics);
+		for (String line: sb.toString().split("\n"))
+			parser.nextLine(line);
+		Value value = parser.finish();
+
+		// the root, 'app', the motd, the two objects and 10, the array, the
+		// inline array with its two numbers, and 3
+		KvonMetrics.Document document = parsed.get(0);
+		assertEquals(document.lines, 10);
+		assertEquals(document.characters, sb.length() - 10);
+		assertEquals(document.nodes, 11);
+		assertEquals(document.maxDepth, 3);
+		assertEquals(document.multiLineCharacters, "hello\nworld".length());
+
+		ExpandedEncoder.setMetrics(metrics);
+		try {
+			String text = ExpandedEncoder.encode(value, Indention.tabs());
+			assertEquals(text, sb.toString());
+			assertEquals(encoded.get(0).nodes, document.nodes);
+			assertEquals(encoded.get(0).lines, document.lines);
+			assertEquals(encoded.get(0).contentHash, document.contentHash);
+		} finally {
+			ExpandedEncoder.setMetrics(null);
+		}
+
+		// the same as Flight Recorder events
+		Path file = Files.createTempFile("kvon", ".jfr");
+		try (Recording recording = new Recording()) {
+			recording.enable("org.kvon.Parse");
+			recording.start();
+			parser.reset();
+			parser.setMetrics(new KvonFlightRecorder());
+			parser.nextLine("a: 1");
+			parser.finish();
+			recording.stop();
+			recording.dump(file);
+
+			List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+			assertEquals(events.size(), 1);
+			assertEquals(events.get(0).getInt("lines"), 1);
+			assertEquals(events.get(0).getLong("nodes"), 2L);
+			// the event spans the parsing
+			assertTrue(events.get(0).getDuration().toNanos() > 0);
+		} finally {
+			Files.deleteIfExists(file);
+		}
+
+		// a document parsed in chunks is reported once, as a whole
+		StringBuilder large = new StringBuilder();
+		for (int i = 0; i < 100; i++)
+			large.append("k").append(i).append(":\n  a: [1 2]\n  t: |\n    x\n");
+		parsed.clear();
+		Parser.setDefaultMetrics(metrics);
+		try {
+			Parser.parseString(large.toString());
+			ForkJoinPool pool = new ForkJoinPool(4);
+			try {
+				ParallelParser.parse(large.toString(), pool, null, 100);
+			} finally {
+				pool.shutdown();
+			}
+		} finally {
+			Parser.setDefaultMetrics(null);
+		}
+		assertEquals(parsed.size(), 2);
+		KvonMetrics.Document whole = parsed.get(0);
+		KvonMetrics.Document chunked = parsed.get(1);
+		assertEquals(chunked.lines, whole.lines);
+		assertEquals(chunked.characters, whole.characters);
+		assertEquals(chunked.nodes, whole.nodes);
+		assertEquals(chunked.maxDepth, whole.maxDepth);
+		assertEquals(chunked.multiLineCharacters, whole.multiLineCharacters);
+		assertEquals(chunked.contentHash, whole.contentHash);
+
+		// every document started is reported, however it is parsed
+		int[] starts = {0};
+		int[] ends = {0};
+		Parser.setDefaultMetrics(new KvonMetrics() {
+			@Override
+			public Object startParse() {
+				starts[0]++;
+				return null;
+			}
+
+			@Override
+			public void onParse(Document document) {
+				ends[0]++;
+			}
+		});
+		Path source = Files.createTempFile("kvon", ".kvon");
+		try {
+			ForkJoinPool pool = new ForkJoinPool(4);
+			try {
+				ParallelParser.parse(large.toString(), pool, null, 100);
+			} finally {
+				pool.shutdown();
+			}
+			new ParserPool().parse(large.toString());
+			new ParserPool().parse("");
+
+			IncrementalParser incremental = new IncrementalParser(large.toString());
+			incremental.replaceLines(1, 2, Collections.singletonList("  a: [3]"));
+
+			Files.write(source, large.toString().getBytes(StandardCharsets.UTF_8));
+			try (IndexedFile indexed = IndexedFile.open(source)) {
+				assertEquals(indexed.get("k7.a").size(), 2);
+			}
+		} finally {
+			Parser.setDefaultMetrics(null);
+			Files.deleteIfExists(KeyPathIndex.sidecarOf(source));
+			Files.deleteIfExists(source);
+		}
+		assertEquals(starts[0], 3);
+		assertEquals(ends[0], 3);
+	}
 }